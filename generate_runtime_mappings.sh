@@ -4,5 +4,7 @@
 # with all of the different parameter permutations.  A single mapping is insufficient
 # because JNA requires you to explicitly declare whether a Structure parameter is passed by
 # value.
+# Only arities up to 7 are generated.  Messages with more arguments are sent through
+# GenericDispatch, which calls objc_msgSend as a plain JNA Function and so needs no mapping.
 
 php src/main/php/generate_mappings.php > src/main/java/ca/weblite/objc/RuntimeMappings.java
\ No newline at end of file
@@ -0,0 +1,186 @@
+package ca.weblite.objc;
+
+import com.sun.jna.Pointer;
+
+/**
+ * An autorelease pool scope for try-with-resources.  Objects that are
+ * autoreleased while the pool is the innermost one on its thread, such as the
+ * NSStrings created by {@link RuntimeUtils#str(String)} or the results of
+ * {@code arrayWith...} messages, are released when it is closed.
+ *
+ * <pre>
+ * {@code
+ * try (AutoreleasePool pool = Client.getInstance().autoreleasePool()) {
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * <p>Pools are pushed and popped with {@code objc_autoreleasePoolPush} and
+ * {@code objc_autoreleasePoolPop}, so nested scopes are cheap.  A pool must be
+ * closed on the thread that opened it.  Closing a pool also closes the pools
+ * that were opened inside it and are still open.</p>
+ *
+ * <h2>Draining Automatically</h2>
+ *
+ * <p>Long-lived threads that send messages in a loop can open a pool with
+ * {@link #push(int)}.  While it is the innermost pool on its thread, it is
+ * drained after every given number of messages sent with the {@code send}
+ * methods of {@link Client} and {@link Proxy} (including {@code sendProxy},
+ * {@code sendString} etc., but not the unboxed {@code sendLong},
+ * {@code sendDouble} and {@code sendVoid} shapes) or with a {@link CallSite}.
+ * Objects returned by those messages that have to outlive the next drain must
+ * be retained.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public final class AutoreleasePool implements AutoCloseable {
+
+    /**
+     * The innermost open pool of each thread.
+     */
+    private static final ThreadLocal<AutoreleasePool> innermost = new ThreadLocal<>();
+
+    /**
+     * The number of open pools that drain automatically, in all threads.
+     * Sends only look for a pool to drain while it isn't zero.
+     */
+    private static volatile int autoDraining;
+
+    private final Thread thread;
+    private final AutoreleasePool parent;
+    private final int drainEvery;
+    private long token;
+    private int sends;
+    private boolean closed;
+
+    private AutoreleasePool(AutoreleasePool parent, int drainEvery) {
+        this.thread = Thread.currentThread();
+        this.parent = parent;
+        this.drainEvery = drainEvery;
+        this.token = pushPool();
+    }
+
+    /**
+     * Opens a pool on the current thread.
+     *
+     * @return The pool, which must be closed on this thread.
+     */
+    public static AutoreleasePool push() {
+        return push(0);
+    }
+
+    /**
+     * Opens a pool on the current thread that is drained after every
+     * {@code drainEvery} messages while it is the innermost pool.
+     *
+     * @param drainEvery The number of messages between drains, or 0 to only
+     * drain the pool when it is closed.
+     * @return The pool, which must be closed on this thread.
+     */
+    public static AutoreleasePool push(int drainEvery) {
+        if (drainEvery < 0) {
+            throw new IllegalArgumentException("drainEvery must not be negative: "+drainEvery);
+        }
+        AutoreleasePool pool = new AutoreleasePool(innermost.get(), drainEvery);
+        innermost.set(pool);
+        if (drainEvery > 0) {
+            synchronized (AutoreleasePool.class) {
+                autoDraining++;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Releases the objects that were autoreleased into this pool so far.
+     * The pool stays open.
+     *
+     * @throws IllegalStateException If the pool is closed, or if it isn't the
+     * innermost pool of the current thread.
+     */
+    public void drain() {
+        if (closed || innermost.get() != this) {
+            throw new IllegalStateException("Only the innermost open pool of a thread can be drained");
+        }
+        popPool(token);
+        token = pushPool();
+        sends = 0;
+    }
+
+    /**
+     * Closes this pool, and any pools opened inside it that are still open,
+     * releasing the objects that were autoreleased into them.  Closing a pool
+     * again has no effect.
+     *
+     * @throws IllegalStateException If called on another thread than the one
+     * that opened the pool.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (Thread.currentThread() != thread) {
+            throw new IllegalStateException("An autorelease pool must be closed on the thread that opened it");
+        }
+        for (AutoreleasePool p = innermost.get(); p != null; p = p.parent) {
+            p.closed = true;
+            if (p.drainEvery > 0) {
+                synchronized (AutoreleasePool.class) {
+                    autoDraining--;
+                }
+            }
+            if (p == this) {
+                break;
+            }
+        }
+        popPool(token);
+        if (parent == null) {
+            innermost.remove();
+        } else {
+            innermost.set(parent);
+        }
+    }
+
+    /**
+     * Checks whether this pool has been closed.
+     *
+     * @return True if it is closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Counts a message sent on the current thread, and drains the innermost
+     * pool if it drains automatically and is due.  Called before each message
+     * that goes through {@link Client#send(Pointer, Pointer, Object...)} or
+     * {@link CallSite#invoke(Pointer, Object...)}.
+     */
+    static void countSend() {
+        if (autoDraining == 0) {
+            return;
+        }
+        AutoreleasePool pool = innermost.get();
+        if (pool != null && pool.drainEvery > 0 && ++pool.sends >= pool.drainEvery) {
+            pool.drain();
+        }
+    }
+
+    private static long pushPool() {
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_autoreleasePoolPush();
+        }
+        return Pointer.nativeValue(Runtime.INSTANCE.objc_autoreleasePoolPush());
+    }
+
+    private static void popPool(long token) {
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_autoreleasePoolPop(token);
+        } else {
+            Runtime.INSTANCE.objc_autoreleasePoolPop(new Pointer(token));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ca.weblite.objc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Dispatch table for messages that pass one or more {@link Structure.ByValue}
+ * arguments.  JNA only passes a structure by value if the mapped method declares
+ * it as such, so {@link RuntimeMappings} contains one interface per pattern of
+ * by-value argument positions.  This table resolves the method handles for a
+ * pattern the first time it is used, so later messages with the same pattern
+ * are an array lookup plus the native call.  The mapping itself is created by
+ * {@link RuntimeMappingsRegistry} at the same time.
+ *
+ * <p>Patterns are identified by the arity and an integer bitmask in which bit
+ * {@code i} is set if argument {@code i} is passed by value.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ByValueDispatch {
+    
+    /**
+     * The maximum arity covered by {@link RuntimeMappings}.
+     */
+    static final int MAX_ARGS = 7;
+    
+    /**
+     * Dispatchers indexed by {@code (1 << arity) + mask}.
+     */
+    private static final AtomicReferenceArray<ByValueDispatch> table = new AtomicReferenceArray<>(1 << (MAX_ARGS + 1));
+    
+    private static final MethodType SEND_TYPE = MethodType.methodType(long.class, Pointer.class, Pointer.class, Object[].class);
+    private static final MethodType FPRET_TYPE = MethodType.methodType(double.class, Pointer.class, Pointer.class, Object[].class);
+    
+    /**
+     * (Pointer, Pointer, Object[])long handle for objc_msgSend.
+     */
+    private final MethodHandle msgSend;
+    
+    /**
+     * (Pointer, Pointer, Object[])double handle for objc_msgSend_fpret, or
+     * null on arm64 where floating point returns go through {@link #msgSendFunction}.
+     */
+    private final MethodHandle msgSendFpret;
+    
+    /**
+     * objc_msgSend as a plain JNA function, used for floating point returns on
+     * arm64.  Function passes ByValue structures by value on its own.
+     */
+    private static Function msgSendFunction;
+    
+    private ByValueDispatch(int arity, int mask) {
+        StringBuilder suffix = new StringBuilder(arity);
+        Class<?>[] paramTypes = new Class<?>[arity + 2];
+        paramTypes[0] = Pointer.class;
+        paramTypes[1] = Pointer.class;
+        for (int i=0; i<arity; i++) {
+            boolean byValue = (mask & (1 << i)) != 0;
+            suffix.append(byValue ? '1' : '0');
+            paramTypes[i+2] = byValue ? Structure.ByValue.class : Object.class;
+        }
+        try {
+            Class<?> runtimeClass = RuntimeMappingsRegistry.getMappingClass(suffix.toString());
+            Object runtimeInstance = RuntimeMappingsRegistry.getMapping(suffix.toString());
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            msgSend = lookup.findVirtual(runtimeClass, "objc_msgSend", MethodType.methodType(long.class, paramTypes))
+                    .bindTo(runtimeInstance)
+                    .asSpreader(Object[].class, arity)
+                    .asType(SEND_TYPE);
+            msgSendFpret = DirectRuntime.IS_ARM64 ? null : lookup.findVirtual(runtimeClass, "objc_msgSend_fpret", MethodType.methodType(double.class, paramTypes))
+                    .bindTo(runtimeInstance)
+                    .asSpreader(Object[].class, arity)
+                    .asType(FPRET_TYPE);
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("No runtime mapping for by-value pattern "+suffix, ex);
+        }
+    }
+    
+    /**
+     * Computes the by-value bitmask of a message's arguments.
+     *
+     * @param args The arguments.
+     * @return The bitmask, which is zero if no argument is a {@link Structure.ByValue}.
+     */
+    static int mask(Object[] args) {
+        int mask = 0;
+        for (int i=0; i<args.length; i++) {
+            if (args[i] instanceof Structure.ByValue) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+    
+    /**
+     * Returns the dispatcher for a by-value pattern, resolving it on first use.
+     *
+     * @param arity The number of arguments, at most {@link #MAX_ARGS}.
+     * @param mask The by-value bitmask as computed by {@link #mask(Object[])}.
+     * @return The dispatcher.
+     */
+    static ByValueDispatch get(int arity, int mask) {
+        int index = (1 << arity) + mask;
+        ByValueDispatch dispatch = table.get(index);
+        if (dispatch == null) {
+            dispatch = new ByValueDispatch(arity, mask);
+            if (!table.compareAndSet(index, null, dispatch)) {
+                dispatch = table.get(index);
+            }
+        }
+        return dispatch;
+    }
+    
+    /**
+     * Sends a message through objc_msgSend.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments, matching this dispatcher's pattern.
+     * @return The integer-class return value.
+     */
+    long msgSend(Pointer receiver, Pointer selector, Object[] args) {
+        try {
+            return (long)msgSend.invokeExact(receiver, selector, args);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    /**
+     * Sends a message that returns a floating point value.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments, matching this dispatcher's pattern.
+     * @return The floating point return value.
+     */
+    double msgSendFpret(Pointer receiver, Pointer selector, Object[] args) {
+        if (msgSendFpret == null) {
+            Object[] fullArgs = new Object[args.length + 2];
+            fullArgs[0] = receiver;
+            fullArgs[1] = selector;
+            System.arraycopy(args, 0, fullArgs, 2, args.length);
+            return msgSendFunction().invokeDouble(fullArgs);
+        }
+        try {
+            return (double)msgSendFpret.invokeExact(receiver, selector, args);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    private static synchronized Function msgSendFunction() {
+        if (msgSendFunction == null) {
+            msgSendFunction = RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend");
+        }
+        return msgSendFunction;
+    }
+}
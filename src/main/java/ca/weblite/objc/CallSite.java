@@ -0,0 +1,184 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import com.sun.jna.Pointer;
+
+/**
+ * A message that has been bound to a selector and a receiver class ahead of
+ * time.  Binding resolves everything that {@link RuntimeUtils#msg(boolean, boolean, Pointer, Pointer, Object...)}
+ * would otherwise work out on every call: the selector, the method signature,
+ * the argument and return value converters, and which objc_msgSend variant
+ * to use.  {@link #invoke(Pointer, Object...)} then only converts the
+ * arguments and sends the message.
+ *
+ * <pre>
+ * {@code
+ * CallSite setFrameOrigin = Client.getInstance().bind("NSView", "setFrameOrigin:");
+ * for (Proxy view : views) {
+ *     setFrameOrigin.invoke(view.getPeer(), origin);
+ * }
+ * }
+ * </pre>
+ *
+ * <p>A CallSite is immutable and may be shared between threads.  It must only
+ * be invoked on instances of the class that it was bound to (or subclasses
+ * that don't change the method's signature).</p>
+ *
+ * @see Client#bind(String, String)
+ * @author shannah
+ * @since 1.3
+ */
+public final class CallSite {
+    
+    private static final int RETURN_VOID = 0;
+    private static final int RETURN_INTEGER = 1;
+    private static final int RETURN_FLOATING_POINT = 2;
+    private static final int RETURN_STRUCTURE = 3;
+    
+    private final Pointer selector;
+    private final boolean coerceInputs;
+    private final boolean coerceOutputs;
+    private final TypeMapper mapper;
+    private final String[] argumentTypes;
+    private final TypeEncoding[] argumentEncodings;
+    private final String returnType;
+    private final TypeEncoding returnEncoding;
+    private final int returnKind;
+    
+    private CallSite(Client client, Pointer selector, MethodSignature signature) {
+        this.selector = selector;
+        this.coerceInputs = client.getCoerceInputs();
+        this.coerceOutputs = client.getCoerceOutputs();
+        this.mapper = client.getTypeMapper();
+        
+        argumentEncodings = signature.argumentEncodings;
+        argumentTypes = new String[argumentEncodings.length];
+        for (int i=0; i<argumentTypes.length; i++) {
+            argumentTypes[i] = argumentEncodings[i].getType();
+        }
+        
+        returnEncoding = signature.returnEncoding;
+        returnType = signature.returnType;
+        if (returnEncoding == null || returnEncoding.getKind() == TypeEncoding.Kind.VOID) {
+            returnKind = RETURN_VOID;
+        } else if (returnEncoding.isAggregate()) {
+            returnKind = RETURN_STRUCTURE;
+        } else if (returnEncoding.isFloatingPoint()) {
+            returnKind = RETURN_FLOATING_POINT;
+        } else {
+            returnKind = RETURN_INTEGER;
+        }
+    }
+    
+    /**
+     * Binds a selector of the given class.  Instance methods take precedence;
+     * if the class has no instance method for the selector, its class method
+     * is bound instead.
+     *
+     * @param client The client whose coercion settings should be used.
+     * @param cls The receiver class.
+     * @param selector The selector.
+     * @return The call site.
+     * @throws RuntimeException wrapping a {@link NoSuchMethodException} if the
+     * class doesn't respond to the selector.
+     */
+    static CallSite bind(Client client, Pointer cls, Pointer selector) {
+        if (cls == null || Pointer.nativeValue(cls) == 0L) {
+            throw new IllegalArgumentException("Cannot bind selector "+selName(selector)+" to a null class");
+        }
+        Pointer methodSignature = msgPointer(cls, "instanceMethodSignatureForSelector:", selector);
+        if (Pointer.nativeValue(methodSignature) == 0L) {
+            methodSignature = msgPointer(cls, "methodSignatureForSelector:", selector);
+        }
+        if (Pointer.nativeValue(methodSignature) == 0L) {
+            throw new RuntimeException(new NoSuchMethodException("Cannot find selector "+selName(selector)+" for class "+clsName(cls)));
+        }
+        return new CallSite(client, selector, MethodSignature.read(methodSignature));
+    }
+    
+    /**
+     * Returns the selector that this call site sends.
+     *
+     * @return The selector.
+     */
+    public Pointer getSelector() {
+        return selector;
+    }
+    
+    /**
+     * Returns the number of arguments that {@link #invoke(Pointer, Object...)}
+     * expects.
+     *
+     * @return The number of arguments.
+     */
+    public int getArgumentCount() {
+        return argumentTypes.length;
+    }
+    
+    /**
+     * Sends the bound message to a receiver.
+     *
+     * @param receiver The receiver of the message.
+     * @param args The arguments of the message.  If the call site was bound by
+     * a client that coerces inputs, they are converted in place.
+     * @return The return value, converted to a Java value if the call site was
+     * bound by a client that coerces outputs.
+     */
+    public Object invoke(Pointer receiver, Object... args) {
+        if (args.length != argumentTypes.length) {
+            throw new RuntimeException("Wrong argument count.  The selector "+selName(selector)+" requires "+argumentTypes.length+" arguments, but received "+args.length);
+        }
+        AutoreleasePool.countSend();
+        if (coerceInputs) {
+            for (int i=0; i<args.length; i++) {
+                Object arg = args[i];
+                args[i] = mapper.resolve(argumentEncodings[i], arg == null ? null : arg.getClass()).jToC(arg, argumentTypes[i], mapper);
+            }
+        }
+        
+        Object result;
+        switch (returnKind) {
+            case RETURN_FLOATING_POINT:
+                result = objc_msgSend_fpret(receiver, selector, args);
+                break;
+            case RETURN_INTEGER:
+                long value = objc_msgSend(receiver, selector, args);
+                if (coerceOutputs) {
+                    boolean tracking = ProxyLeakDetector.beforeReturn(selector);
+                    try {
+                        result = mapper.resolve(returnEncoding, Long.class).cToJ(value, returnType, mapper);
+                    } finally {
+                        if (tracking) {
+                            ProxyLeakDetector.afterReturn();
+                        }
+                    }
+                } else {
+                    result = value;
+                }
+                break;
+            case RETURN_STRUCTURE:
+                result = msgStructure(mapper, coerceOutputs, returnEncoding, receiver, selector, args);
+                break;
+            default:
+                result = objc_msgSend(receiver, selector, args);
+                break;
+        }
+        for (int i=0; i<args.length; i++) {
+            Proxy.release(args[i]);
+        }
+        return result;
+    }
+    
+    /**
+     * Sends the bound message to the peer of a Peerable receiver.
+     *
+     * @param receiver The receiver of the message.
+     * @param args The arguments of the message.
+     * @return The return value.
+     * @see #invoke(Pointer, Object...)
+     */
+    public Object invoke(Peerable receiver, Object... args) {
+        return invoke(receiver.getPeer(), args);
+    }
+}
@@ -1,5 +1,6 @@
 package ca.weblite.objc;
 import static ca.weblite.objc.RuntimeUtils.*;
+import static ca.weblite.objc.DirectRuntime.address;
 import com.sun.jna.Pointer;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,6 +40,23 @@ public class Client {
     private Client(boolean coerceInputs, boolean coerceOutputs) {
         this.coerceInputs = coerceInputs;
         this.coerceOutputs = coerceOutputs;
+        this.typeMapper = TypeMapper.getInstance();
+    }
+    
+    /**
+     * Creates a client that coerces both inputs and outputs using its own
+     * set of type mappings.
+     *
+     * @param typeMapper The mapper used to convert inputs and outputs.
+     * @since 1.3
+     */
+    public Client(TypeMapper typeMapper) {
+        if (typeMapper == null) {
+            throw new IllegalArgumentException("TypeMapper must not be null");
+        }
+        this.coerceInputs = true;
+        this.coerceOutputs = true;
+        this.typeMapper = typeMapper;
     }
     
     /**
@@ -83,6 +101,11 @@ public class Client {
      */
     final boolean coerceOutputs;
     
+    /**
+     * The mapper used to coerce inputs and outputs.
+     */
+    final TypeMapper typeMapper;
+    
     
   
     /**
@@ -143,6 +166,17 @@ public class Client {
         return coerceOutputs;
     }
     
+    /**
+     * Returns the mapper that this client uses to coerce inputs and outputs.
+     *
+     * @return The type mapper.  {@link TypeMapper#getInstance()} unless the client
+     * was created with {@link #Client(TypeMapper)}.
+     * @since 1.3
+     */
+    public TypeMapper getTypeMapper(){
+        return typeMapper;
+    }
+    
     /**
      * Sends a message to an Objective-C object.
      * <pre>
@@ -158,7 +192,8 @@ public class Client {
      * @return The return value of the message call.
      */
     public Object send(Pointer receiver, Pointer selector, Object... args){
-        return msg(coerceOutputs, coerceInputs,receiver, selector, args);
+        AutoreleasePool.countSend();
+        return msg(typeMapper, coerceOutputs, coerceInputs, receiver, selector, args);
     }
     
     /**
@@ -445,6 +480,366 @@ public class Client {
         
     }
     
+    /*
+     * Primitive sends.
+     *
+     * These skip the varargs array, boxing and coercion of send(), and go
+     * straight to the direct-mapped objc_msgSend entry points.  They ignore the
+     * client's coercion settings, so the caller is responsible for passing the
+     * raw C values and for choosing the variant that matches the return type
+     * of the method.
+     */
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector));
+        }
+        return objc_msgSend(receiver, selector);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector, long arg){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector), arg);
+        }
+        return objc_msgSend(receiver, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @param arg2 An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector, long arg, long arg2){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector), arg, arg2);
+        }
+        return objc_msgSend(receiver, selector, arg, arg2);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector, Pointer arg){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg));
+        }
+        return objc_msgSend(receiver, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     * @param arg2 An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector, Pointer arg, long arg2){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg), arg2);
+        }
+        return objc_msgSend(receiver, selector, arg, arg2);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger,
+     * NSUInteger, or a pointer) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     * @param arg2 An object, class, selector or pointer argument.
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer receiver, Pointer selector, Pointer arg, Pointer arg2){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg), address(arg2));
+        }
+        return objc_msgSend(receiver, selector, arg, arg2);
+    }
+    
+    /**
+     * Sends a message that returns a double (or CGFloat) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @return The return value.
+     */
+    public double sendDouble(Pointer receiver, Pointer selector){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend_fpret(address(receiver), address(selector));
+        }
+        return objc_msgSend_fpret(receiver, selector);
+    }
+    
+    /**
+     * Sends a message that returns a double (or CGFloat) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @return The return value.
+     */
+    public double sendDouble(Pointer receiver, Pointer selector, long arg){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend_fpret(address(receiver), address(selector), arg);
+        }
+        return objc_msgSend_fpret(receiver, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns a double (or CGFloat) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg A double argument (e.g. CGFloat).
+     * @return The return value.
+     */
+    public double sendDouble(Pointer receiver, Pointer selector, double arg){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend_fpret(address(receiver), address(selector), arg);
+        }
+        return objc_msgSend_fpret(receiver, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns a double (or CGFloat) without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg A double argument (e.g. CGFloat).
+     * @param arg2 A double argument (e.g. CGFloat).
+     * @return The return value.
+     */
+    public double sendDouble(Pointer receiver, Pointer selector, double arg, double arg2){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend_fpret(address(receiver), address(selector), arg, arg2);
+        }
+        return objc_msgSend_fpret(receiver, selector, arg, arg2);
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     */
+    public void sendVoid(Pointer receiver, Pointer selector){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector));
+        } else {
+            objc_msgSend(receiver, selector);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, long arg){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), arg);
+        } else {
+            objc_msgSend(receiver, selector, arg);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @param arg2 An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, long arg, long arg2){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), arg, arg2);
+        } else {
+            objc_msgSend(receiver, selector, arg, arg2);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, Pointer arg){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg));
+        } else {
+            objc_msgSend(receiver, selector, arg);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     * @param arg2 An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, Pointer arg, long arg2){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg), arg2);
+        } else {
+            objc_msgSend(receiver, selector, arg, arg2);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg An object, class, selector or pointer argument.
+     * @param arg2 An object, class, selector or pointer argument.
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, Pointer arg, Pointer arg2){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), address(arg), address(arg2));
+        } else {
+            objc_msgSend(receiver, selector, arg, arg2);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg A double argument (e.g. CGFloat).
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, double arg){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), arg);
+        } else {
+            objc_msgSend(receiver, selector, arg);
+        }
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param receiver The object to which the message is being sent.
+     * @param selector The selector to call on the receiver.
+     * @param arg A double argument (e.g. CGFloat).
+     * @param arg2 A double argument (e.g. CGFloat).
+     */
+    public void sendVoid(Pointer receiver, Pointer selector, double arg, double arg2){
+        if (DirectRuntime.AVAILABLE) {
+            DirectRuntime.objc_msgSend(address(receiver), address(selector), arg, arg2);
+        } else {
+            objc_msgSend(receiver, selector, arg, arg2);
+        }
+    }
+    
+    /**
+     * Binds a selector of a class to a {@link CallSite} that can be invoked
+     * repeatedly without looking up the selector or method signature again.
+     * The call site uses this client's coercion settings.
+     * <pre>
+     * {@code
+     * CallSite setFrameOrigin = Client.getInstance().bind("NSView", "setFrameOrigin:");
+     * setFrameOrigin.invoke(view, origin);
+     * }
+     * </pre>
+     *
+     * @param cls The name of the receiver class.
+     * @param selector The selector.  (E.g. "setFrameOrigin:")
+     * @return The bound call site.
+     */
+    public CallSite bind(String cls, String selector){
+        Pointer clsPtr = cls(cls);
+        if (clsPtr == null) {
+            throw new RuntimeException("Cannot find class "+cls);
+        }
+        return bind(clsPtr, sel(selector));
+    }
+    
+    /**
+     * Binds a selector of a class to a {@link CallSite} that can be invoked
+     * repeatedly without looking up the selector or method signature again.
+     * The call site uses this client's coercion settings.
+     *
+     * @param cls Pointer to the receiver class.
+     * @param selector Pointer to the selector.
+     * @return The bound call site.
+     */
+    public CallSite bind(Pointer cls, Pointer selector){
+        return CallSite.bind(this, cls, selector);
+    }
+    
+    /**
+     * Opens an autorelease pool on the current thread, for use with
+     * try-with-resources.
+     * <pre>
+     * {@code
+     * try (AutoreleasePool pool = Client.getInstance().autoreleasePool()) {
+     *     client.send("NSString", "stringWithUTF8String:", "Hello");
+     * }
+     * }
+     * </pre>
+     *
+     * @return The pool, which must be closed on this thread.
+     * @see AutoreleasePool#push()
+     */
+    public AutoreleasePool autoreleasePool(){
+        return AutoreleasePool.push();
+    }
+    
+    /**
+     * Opens an autorelease pool on the current thread that is also drained
+     * after every {@code drainEvery} messages sent with {@code send} methods
+     * (of any Client or Proxy) or call sites while it is the innermost pool.
+     * Objects returned by those messages that have to outlive the next drain
+     * must be retained.
+     *
+     * @param drainEvery The number of messages between drains.
+     * @return The pool, which must be closed on this thread.
+     * @see AutoreleasePool#push(int)
+     */
+    public AutoreleasePool autoreleasePool(int drainEvery){
+        return AutoreleasePool.push(drainEvery);
+    }
+    
     /**
      * Sends an array of messages in a chain.
      *
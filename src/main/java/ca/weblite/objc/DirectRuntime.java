@@ -0,0 +1,247 @@
+package ca.weblite.objc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.jna.FunctionMapper;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+
+/**
+ * A JNA direct-mapped binding of the message sending functions of the
+ * Objective-C runtime, and of the autorelease pool functions that
+ * {@link AutoreleasePool} calls around each scope.  Direct mapping avoids the reflective proxy and per-call
+ * argument inspection of the interface-mapped {@link Runtime}, which dominates
+ * the cost of short messages like {@code count} or {@code isHidden}.
+ *
+ * <p>Because direct-mapped methods need concrete parameter types, only a fixed
+ * set of shapes is provided: receiver and selector followed by up to four
+ * integer-class arguments (pointers, integers, booleans) or up to two doubles.
+ * {@link RuntimeUtils} uses these automatically when the arguments of a message
+ * fit one of the shapes, and falls back to {@link Runtime} otherwise.</p>
+ *
+ * <p>Direct mapping can be turned off with the system property
+ * {@code ca.weblite.objc.directMapping=false}.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class DirectRuntime {
+    
+    /**
+     * Whether the direct mappings were registered successfully.  If this is
+     * false, none of the native methods in this class may be called.
+     */
+    static final boolean AVAILABLE;
+    
+    /**
+     * Flag to check if this is apple silicon. (arm64)  objc_msgSend_fpret and
+     * objc_msgSend_stret don't exist there; objc_msgSend handles all returns.
+     */
+    static final boolean IS_ARM64 = "aarch64".equals(System.getProperty("os.arch"));
+    
+    static {
+        boolean available = false;
+        if (!"false".equals(System.getProperty("ca.weblite.objc.directMapping"))) {
+            try {
+                Native.register(DirectRuntime.class, library());
+                available = true;
+            } catch (LinkageError | RuntimeException ex) {
+                // Leave the interface-mapped Runtime as the only backend
+            }
+        }
+        AVAILABLE = available;
+    }
+    
+    private DirectRuntime() {
+        
+    }
+    
+    /**
+     * Loads the objc library with a function mapper that maps the
+     * objc_msgSend_fpret entry points to objc_msgSend on arm64.
+     */
+    private static NativeLibrary library() {
+        Map<String,Object> options = new HashMap<>();
+        options.put(Library.OPTION_FUNCTION_MAPPER, (FunctionMapper)(lib, method) -> {
+            String name = method.getName();
+            if (IS_ARM64 && name.equals("objc_msgSend_fpret")) {
+                return "objc_msgSend";
+            }
+            return name;
+        });
+        return NativeLibrary.getInstance("objc.A", options);
+    }
+    
+    /**
+     * Gets the address of a receiver, selector or argument pointer, which is
+     * 0 for null (i.e. nil).
+     *
+     * @param p The pointer.
+     * @return The address.
+     */
+    static long address(Pointer p) {
+        return p == null ? 0L : Pointer.nativeValue(p);
+    }
+    
+    /**
+     * Checks whether a message argument can be passed to one of the
+     * integer-class entry points, i.e. it is passed in a general purpose
+     * register as a 64 bit value.
+     *
+     * @param arg The argument.
+     * @return True if {@link #toLong(Object)} can convert the argument.
+     */
+    static boolean isIntegerArg(Object arg) {
+        return arg == null
+                || arg instanceof Pointer
+                || arg instanceof Long
+                || arg instanceof Integer
+                || arg instanceof Short
+                || arg instanceof Byte
+                || arg instanceof Boolean;
+    }
+    
+    /**
+     * Converts an argument accepted by {@link #isIntegerArg(Object)} to the
+     * value that should be passed to an integer-class entry point.
+     *
+     * @param arg The argument.
+     * @return The raw value.
+     */
+    static long toLong(Object arg) {
+        if (arg == null) {
+            return 0L;
+        } else if (arg instanceof Pointer) {
+            return Pointer.nativeValue((Pointer)arg);
+        } else if (arg instanceof Boolean) {
+            return ((Boolean)arg) ? 1L : 0L;
+        } else {
+            return ((Number)arg).longValue();
+        }
+    }
+    
+    /**
+     * Checks whether all arguments of a message fit one of the integer-class
+     * entry points.
+     *
+     * @param args The message arguments.
+     * @return True if {@link #msgSend(Pointer, Pointer, Object[])} can send them.
+     */
+    static boolean canSend(Object[] args) {
+        if (args.length > 4) {
+            return false;
+        }
+        for (Object arg : args) {
+            if (!isIntegerArg(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Sends a message whose arguments have been checked with {@link #canSend(Object[])}.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The integer-class return value.
+     */
+    static long msgSend(Pointer receiver, Pointer selector, Object[] args) {
+        long self = Pointer.nativeValue(receiver);
+        long op = Pointer.nativeValue(selector);
+        switch (args.length) {
+            case 0:
+                return objc_msgSend(self, op);
+            case 1:
+                return objc_msgSend(self, op, toLong(args[0]));
+            case 2:
+                return objc_msgSend(self, op, toLong(args[0]), toLong(args[1]));
+            case 3:
+                return objc_msgSend(self, op, toLong(args[0]), toLong(args[1]), toLong(args[2]));
+            default:
+                return objc_msgSend(self, op, toLong(args[0]), toLong(args[1]), toLong(args[2]), toLong(args[3]));
+        }
+    }
+    
+    /**
+     * Sends a message that returns a double, whose arguments have been checked
+     * with {@link #canSend(Object[])}.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The floating point return value.
+     */
+    static double msgSendFpret(Pointer receiver, Pointer selector, Object[] args) {
+        long self = Pointer.nativeValue(receiver);
+        long op = Pointer.nativeValue(selector);
+        switch (args.length) {
+            case 0:
+                return objc_msgSend_fpret(self, op);
+            case 1:
+                return objc_msgSend_fpret(self, op, toLong(args[0]));
+            case 2:
+                return objc_msgSend_fpret(self, op, toLong(args[0]), toLong(args[1]));
+            case 3:
+                return objc_msgSend_fpret(self, op, toLong(args[0]), toLong(args[1]), toLong(args[2]));
+            default:
+                return objc_msgSend_fpret(self, op, toLong(args[0]), toLong(args[1]), toLong(args[2]), toLong(args[3]));
+        }
+    }
+    
+    static native long objc_msgSend(long self, long op);
+    static native long objc_msgSend(long self, long op, long arg);
+    static native long objc_msgSend(long self, long op, long arg, long arg2);
+    static native long objc_msgSend(long self, long op, long arg, long arg2, long arg3);
+    static native long objc_msgSend(long self, long op, long arg, long arg2, long arg3, long arg4);
+    static native long objc_msgSend(long self, long op, double arg);
+    static native long objc_msgSend(long self, long op, double arg, double arg2);
+    
+    static native double objc_msgSend_fpret(long self, long op);
+    static native double objc_msgSend_fpret(long self, long op, long arg);
+    static native double objc_msgSend_fpret(long self, long op, long arg, long arg2);
+    static native double objc_msgSend_fpret(long self, long op, long arg, long arg2, long arg3);
+    static native double objc_msgSend_fpret(long self, long op, long arg, long arg2, long arg3, long arg4);
+    static native double objc_msgSend_fpret(long self, long op, double arg);
+    static native double objc_msgSend_fpret(long self, long op, double arg, double arg2);
+    
+    static native long objc_autoreleasePoolPush();
+    static native void objc_autoreleasePoolPop(long pool);
+    
+    /**
+     * Direct mappings of objc_msgSend_stret, which only exists on x86_64.  On
+     * arm64 structures are returned through objc_msgSend.  The class registers
+     * itself on first use; check {@link #AVAILABLE} before calling.
+     */
+    static final class Stret {
+        
+        static final boolean AVAILABLE;
+        
+        static {
+            boolean available = false;
+            if (DirectRuntime.AVAILABLE && !IS_ARM64) {
+                try {
+                    Native.register(Stret.class, library());
+                    available = true;
+                } catch (LinkageError | RuntimeException ex) {
+                    // Struct returns use the interface mapping instead
+                }
+            }
+            AVAILABLE = available;
+        }
+        
+        private Stret() {
+            
+        }
+        
+        static native void objc_msgSend_stret(long stretAddr, long self, long op);
+        static native void objc_msgSend_stret(long stretAddr, long self, long op, long arg);
+        static native void objc_msgSend_stret(long stretAddr, long self, long op, long arg, long arg2);
+        static native void objc_msgSend_stret(long stretAddr, long self, long op, long arg, long arg2, long arg3);
+        static native void objc_msgSend_stret(long stretAddr, long self, long op, long arg, long arg2, long arg3, long arg4);
+    }
+}
@@ -0,0 +1,24 @@
+package ca.weblite.objc;
+
+/**
+ * Message sending through the Foreign Function &amp; Memory API.
+ *
+ * <p>This is the placeholder used on JDKs older than 22, which never provides
+ * a {@link #SENDER}.  The implementation lives in {@code src/main/java22} and
+ * is packaged under {@code META-INF/versions/22} of the multi-release jar, so
+ * it replaces this class when the bridge runs on JDK 22 or later.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ForeignRuntime {
+    
+    /**
+     * The FFM backend, or null if it is not used.  Always null in this version.
+     */
+    static final ForeignSender SENDER = null;
+    
+    private ForeignRuntime() {
+        
+    }
+}
@@ -0,0 +1,54 @@
+package ca.weblite.objc;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Sends messages through the Foreign Function &amp; Memory API.  The only
+ * implementation is the JDK 22 version of {@link ForeignRuntime}, which
+ * publishes itself as {@link ForeignRuntime#SENDER} when it is enabled.
+ *
+ * @author shannah
+ * @since 1.3
+ */
+interface ForeignSender {
+    
+    /**
+     * Checks whether every argument of a message can be passed by this backend.
+     *
+     * @param args The message arguments.
+     * @return True if the message can be sent with this backend.
+     */
+    boolean canSend(Object[] args);
+    
+    /**
+     * Sends a message through objc_msgSend.  The arguments must have been
+     * checked with {@link #canSend(Object[])}.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The integer-class return value.
+     */
+    long msgSend(Pointer receiver, Pointer selector, Object[] args);
+    
+    /**
+     * Sends a message that returns a floating point value.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The floating point return value.
+     */
+    double msgSendFpret(Pointer receiver, Pointer selector, Object[] args);
+    
+    /**
+     * Sends a message that returns a structure.
+     *
+     * @param buffer The memory that the structure is returned in.
+     * @param layout The layout of the structure.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     */
+    void msgSendStructure(Pointer buffer, StructureLayout layout, Pointer receiver, Pointer selector, Object[] args);
+}
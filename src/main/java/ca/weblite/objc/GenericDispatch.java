@@ -0,0 +1,163 @@
+package ca.weblite.objc;
+
+import java.util.Arrays;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Sends messages with any number of arguments through a cached JNA
+ * {@link Function} for objc_msgSend.  This covers the messages that the
+ * fixed-arity overloads of {@link Runtime} and {@link RuntimeMappings} can't,
+ * i.e. those with more than {@link ByValueDispatch#MAX_ARGS} arguments, so the
+ * generated mappings don't have to be extended for every new arity.
+ *
+ * <p>Since no Java method is involved in the call, JNA passes
+ * {@link com.sun.jna.Structure.ByValue} arguments by value on its own.  The
+ * argument arrays handed to the Function are reused per thread and arity,
+ * unless a message is sent while another one is in progress on the same
+ * thread (e.g. from a callback into Java).</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class GenericDispatch {
+    
+    private static volatile Function msgSend;
+    private static volatile Function msgSendFpret;
+    private static volatile Function msgSendStret;
+    
+    private static final ThreadLocal<ArgumentArrays> argumentArrays = ThreadLocal.withInitial(ArgumentArrays::new);
+    
+    private GenericDispatch() {
+        
+    }
+    
+    /**
+     * Sends a message through objc_msgSend.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The integer-class return value.
+     */
+    static long msgSend(Pointer receiver, Pointer selector, Object[] args) {
+        Function function = msgSend;
+        if (function == null) {
+            function = RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend");
+            msgSend = function;
+        }
+        ArgumentArrays arrays = argumentArrays.get();
+        Object[] fullArgs = arrays.acquire(receiver, selector, args);
+        try {
+            return function.invokeLong(fullArgs);
+        } finally {
+            arrays.release(fullArgs);
+        }
+    }
+    
+    /**
+     * Sends a message that returns a floating point value, through
+     * objc_msgSend_fpret on x86_64 and objc_msgSend on arm64.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The floating point return value.
+     */
+    static double msgSendFpret(Pointer receiver, Pointer selector, Object[] args) {
+        Function function = msgSendFpret;
+        if (function == null) {
+            function = RuntimeMappingsRegistry.getLibrary().getFunction(DirectRuntime.IS_ARM64 ? "objc_msgSend" : "objc_msgSend_fpret");
+            msgSendFpret = function;
+        }
+        ArgumentArrays arrays = argumentArrays.get();
+        Object[] fullArgs = arrays.acquire(receiver, selector, args);
+        try {
+            return function.invokeDouble(fullArgs);
+        } finally {
+            arrays.release(fullArgs);
+        }
+    }
+    
+    /**
+     * Sends a message that returns a structure in registers (or through x8 on
+     * arm64), received as a carrier class with the same register classification.
+     *
+     * @param carrier The carrier class.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The carrier, whose memory holds the returned structure.
+     */
+    static Structure msgSendStructure(Class<? extends Structure> carrier, Pointer receiver, Pointer selector, Object[] args) {
+        Function function = msgSend;
+        if (function == null) {
+            function = RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend");
+            msgSend = function;
+        }
+        ArgumentArrays arrays = argumentArrays.get();
+        Object[] fullArgs = arrays.acquire(receiver, selector, args);
+        try {
+            return (Structure)function.invoke(carrier, fullArgs);
+        } finally {
+            arrays.release(fullArgs);
+        }
+    }
+    
+    /**
+     * Sends a message through objc_msgSend_stret, which only exists on x86_64.
+     *
+     * @param buffer The memory that the structure is returned in.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     */
+    static void msgSendStret(Pointer buffer, Pointer receiver, Pointer selector, Object[] args) {
+        Function function = msgSendStret;
+        if (function == null) {
+            function = RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend_stret");
+            msgSendStret = function;
+        }
+        Object[] fullArgs = new Object[args.length + 3];
+        fullArgs[0] = buffer;
+        fullArgs[1] = receiver;
+        fullArgs[2] = selector;
+        System.arraycopy(args, 0, fullArgs, 3, args.length);
+        function.invokeVoid(fullArgs);
+    }
+    
+    /**
+     * The per-thread argument arrays, indexed by length.
+     */
+    private static final class ArgumentArrays {
+        private Object[][] arrays = new Object[16][];
+        
+        Object[] acquire(Pointer receiver, Pointer selector, Object[] args) {
+            int length = args.length + 2;
+            Object[] out = null;
+            if (length < arrays.length) {
+                out = arrays[length];
+                arrays[length] = null;
+            }
+            if (out == null) {
+                out = new Object[length];
+            }
+            out[0] = receiver;
+            out[1] = selector;
+            System.arraycopy(args, 0, out, 2, args.length);
+            return out;
+        }
+        
+        void release(Object[] array) {
+            Arrays.fill(array, null);
+            if (array.length >= arrays.length) {
+                Object[][] grown = new Object[array.length + 1][];
+                System.arraycopy(arrays, 0, grown, 0, arrays.length);
+                arrays = grown;
+            }
+            arrays[array.length] = array;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ca.weblite.objc;
+
+import com.sun.jna.Pointer;
+
+/**
+ * The parts of an NSMethodSignature that are needed to coerce the arguments
+ * and return value of a message.  Instances are immutable and are cached by
+ * {@link RuntimeUtils} per receiver class and selector, so that a coerced
+ * message only has to query the NSMethodSignature the first time it is sent.
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class MethodSignature {
+    
+    /**
+     * The number of arguments reported by the signature, including the
+     * implicit self and _cmd arguments.
+     */
+    final int numArgs;
+    
+    /**
+     * The return type encoding with any type qualifiers (e.g. "r", "n", "o")
+     * stripped off.  May be null if the runtime didn't report a return type.
+     */
+    final String returnType;
+    
+    /**
+     * The parsed return type.  May be null if the runtime didn't report a
+     * return type.
+     */
+    final TypeEncoding returnEncoding;
+    
+    /**
+     * The type encodings of the explicit arguments, i.e. starting at index 2
+     * of the NSMethodSignature.  Unlike {@link #returnType}, these still
+     * include their type qualifiers.
+     */
+    final String[] argumentTypes;
+    
+    /**
+     * The parsed types of the explicit arguments.
+     */
+    final TypeEncoding[] argumentEncodings;
+    
+    MethodSignature(int numArgs, TypeEncoding returnEncoding, TypeEncoding[] argumentEncodings) {
+        this.numArgs = numArgs;
+        this.returnEncoding = returnEncoding;
+        this.returnType = returnEncoding == null ? null : returnEncoding.getType();
+        this.argumentEncodings = argumentEncodings;
+        this.argumentTypes = new String[argumentEncodings.length];
+        for (int i=0; i<argumentEncodings.length; i++) {
+            argumentTypes[i] = argumentEncodings[i].getEncoding();
+        }
+    }
+    
+    /**
+     * Reads the signature details from an NSMethodSignature object.
+     *
+     * @param methodSignature Pointer to an NSMethodSignature.
+     * @return The signature.
+     */
+    static MethodSignature read(Pointer methodSignature) {
+        int numArgs = (int)RuntimeUtils.msg(methodSignature, "numberOfArguments");
+        long returnTypePtr = RuntimeUtils.msg(methodSignature, "methodReturnType");
+        String returnType = returnTypePtr == 0L ? null : new Pointer(returnTypePtr).getString(0);
+        TypeEncoding returnEncoding = returnType == null || returnType.isEmpty() ? null : TypeEncoding.of(returnType);
+        TypeEncoding[] argumentEncodings = new TypeEncoding[Math.max(0, numArgs - 2)];
+        for (int i=0; i<argumentEncodings.length; i++) {
+            long argTypePtr = RuntimeUtils.msg(methodSignature, "getArgumentTypeAtIndex:", i+2);
+            argumentEncodings[i] = TypeEncoding.of(new Pointer(argTypePtr).getString(0));
+        }
+        return new MethodSignature(numArgs, returnEncoding, argumentEncodings);
+    }
+    
+    /**
+     * Cache key for a receiver class and selector pair.
+     */
+    static final class Key {
+        final long cls;
+        final long selector;
+        
+        Key(long cls, long selector) {
+            this.cls = cls;
+            this.selector = selector;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return k.cls == cls && k.selector == selector;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Long.hashCode(cls * 31 + selector);
+        }
+    }
+}
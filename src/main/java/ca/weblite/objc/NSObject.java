@@ -320,18 +320,8 @@ public class NSObject extends Proxy implements PeerableRecipient {
             Pointer pImpl = new Pointer(impl);
             Function func = Function.getFunction(pImpl);
             long returnType = (Long)pSig.send("methodReturnType");
-            String strReturnType = new Pointer(returnType).getString(0);
-            String prefixes = "rnNoORV";
-            int offset = 0;
-            while ( prefixes.indexOf(strReturnType.charAt(offset)) != -1 ){
-                offset++;
-                if ( offset > strReturnType.length()-1 ){
-                    break;
-                }
-            }
-            if ( offset > 0 ){
-                strReturnType = strReturnType.substring(offset);
-            }
+            TypeEncoding returnEncoding = TypeEncoding.of(new Pointer(returnType).getString(0));
+            String strReturnType = returnEncoding.getType();
             
             Object[] args = new Object[(int) numArgs];
             args[0] = peer;
@@ -341,43 +331,41 @@ public class NSObject extends Proxy implements PeerableRecipient {
                 msg(invocation, "getArgument:atIndex:", ptrRef.getPointer(), i);
                 args[i] = ptrRef.getValue();
             }
-            char retTypeChar = strReturnType.charAt(0);
-            
             Class<?> retType = null;
-            switch ( retTypeChar){
-                case 'v':
+            switch ( returnEncoding.getKind() ){
+                case VOID:
                     retType = void.class; break;
                     
-                case 'f':
+                case FLOAT:
                     retType = float.class; break;
-                case 'd':
+                case DOUBLE:
                     retType = double.class; break;
                 
-                case '*':
+                case C_STRING:
                     retType = String.class; break;
                     
-                case 'i':
-                case 'I':
-                case 's':
-                case 'S':
-                case 'c':
-                case 'C':
-                case 'B':
+                case INT:
+                case UNSIGNED_INT:
+                case SHORT:
+                case UNSIGNED_SHORT:
+                case CHAR:
+                case UNSIGNED_CHAR:
+                case BOOL:
                     
                     retType = int.class;break;
                 
                     
-                case 'l':
-                case 'L':
-                case 'q':
-                case 'Q':
+                case LONG:
+                case UNSIGNED_LONG:
+                case LONG_LONG:
+                case UNSIGNED_LONG_LONG:
                     retType = long.class;break;
                 
-                case '@':
-                case '#':
-                case ':':
-                case '^':
-                case '?':
+                case OBJECT:
+                case CLASS:
+                case SELECTOR:
+                case POINTER:
+                case UNKNOWN:
                     retType = Pointer.class; break;
                 default:
                     // If we don't know how to handle the return type properly, 
@@ -455,6 +443,7 @@ public class NSObject extends Proxy implements PeerableRecipient {
         String selName = selName(selector);
         Method method = methodForSelector(selName);
         if ( method != null){
+            TypeMapper mapper = getClient().getTypeMapper();
             // Perform the method and provide the correct output for the invocation
             Object[] args = new Object[(int) numArgs - 2];
             for ( int i=2; i<numArgs; i++){
@@ -467,26 +456,24 @@ public class NSObject extends Proxy implements PeerableRecipient {
                     
                     msg(invocation, "getArgument:atIndex:", ptrRef.getPointer(), i);
                     
-                    args[i-2] = TypeMapper
-                                .getInstance()
+                    args[i-2] = mapper
                                 .cToJ(
                                     ptrRef.getValue(),
                                     //argPtr.toNative(),
                                     argumentSignature, 
-                                    TypeMapper.getInstance()
+                                    mapper
                             );
                 } else {
                     LongByReference ptrRef = new LongByReference();
                     
                     msg(invocation, "getArgument:atIndex:", ptrRef.getPointer(), i);
                    
-                    args[i-2] = TypeMapper
-                                .getInstance()
+                    args[i-2] = mapper
                                 .cToJ(
                                     ptrRef.getValue(),
                                     //argPtr.toNative(),
                                     argumentSignature, 
-                                    TypeMapper.getInstance()
+                                    mapper
                             );
                 } 
             }
@@ -506,9 +493,8 @@ public class NSObject extends Proxy implements PeerableRecipient {
                 String strReturnType = new Pointer(returnType).getString(0);
                 
                 
-                res = TypeMapper
-                        .getInstance()
-                        .jToC(res, strReturnType, TypeMapper.getInstance());
+                res = mapper
+                        .jToC(res, strReturnType, mapper);
                 
                 if ( !"v".equals(strReturnType)){
                    
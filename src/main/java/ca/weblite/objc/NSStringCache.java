@@ -0,0 +1,259 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.lang.ref.Cleaner;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Caches the NSStrings that Java strings are converted to when they are
+ * passed as object arguments.
+ *
+ * <p>Without the cache every Java string argument creates a new autoreleased
+ * NSString.  Programs that pass the same keys, notification names and
+ * identifiers over and over can turn the cache on with
+ * {@link #setEnabled(boolean)} or the system property
+ * {@code ca.weblite.objc.stringCache=true}.  Strings of up to
+ * {@code ca.weblite.objc.stringCacheMaxLength} chars (default 64) are then
+ * kept in a per-thread LRU cache of {@code ca.weblite.objc.stringCacheSize}
+ * entries (default 256).</p>
+ *
+ * <p>The cache owns one reference to each of its NSStrings.  An evicted
+ * NSString is autoreleased rather than released, so a string that was handed
+ * out stays valid until the current autorelease pool is drained, just like the
+ * NSStrings created by {@link RuntimeUtils#str(String)}.  Each thread has its
+ * own cache so that no thread can release a string that another thread is
+ * still using, and lookups need no locking.  When a thread that used the
+ * cache exits and is collected, its NSStrings are released in the background
+ * like those of collected proxies (see {@link Proxy#setReleaseExecutor}).
+ * {@link #clear()} releases them right away.</p>
+ *
+ * <p>Constants can be pinned with {@link #intern(String)}.  Interned strings
+ * are shared by all threads and are never released, and they are used even
+ * when the cache is turned off.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public final class NSStringCache {
+
+    private static final int MAX_LENGTH = Integer.getInteger("ca.weblite.objc.stringCacheMaxLength", 64);
+
+    private static final int SIZE = Math.max(16, Integer.getInteger("ca.weblite.objc.stringCacheSize", 256));
+
+    private static volatile boolean enabled = Boolean.getBoolean("ca.weblite.objc.stringCache");
+
+    private static final ConcurrentHashMap<String,Pointer> interned = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Lru> caches = ThreadLocal.withInitial(Lru::new);
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private NSStringCache() {
+
+    }
+
+    /**
+     * Checks whether Java strings are cached as they are converted.
+     *
+     * @return True if the cache is on.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the per-thread cache on or off.  Turning it off does not release
+     * the strings that are already cached; use {@link #clear()} for that.
+     *
+     * @param enable True to turn the cache on.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Converts a Java string to an NSString, using the cache if possible.
+     * The result must not be released by the caller.  It is valid at least
+     * until the current autorelease pool is drained.
+     *
+     * @param str The Java string.
+     * @return The NSString.
+     */
+    public static Pointer get(String str) {
+        if (str == null) {
+            return RuntimeUtils.str(str);
+        }
+        if (!interned.isEmpty()) {
+            Pointer out = interned.get(str);
+            if (out != null) {
+                hits.increment();
+                return out;
+            }
+        }
+        if (!enabled || str.length() > MAX_LENGTH) {
+            return RuntimeUtils.str(str);
+        }
+        Lru cache = caches.get();
+        Pointer out = cache.get(str);
+        if (out != null) {
+            hits.increment();
+            return out;
+        }
+        misses.increment();
+        out = create(str);
+        cache.put(str, out);
+        return out;
+    }
+
+    /**
+     * Pins an NSString for a constant.  The NSString is shared by all threads
+     * and is never released.
+     *
+     * @param str The Java string.
+     * @return The NSString.
+     */
+    public static Pointer intern(String str) {
+        if (str == null) {
+            throw new IllegalArgumentException("Cannot intern null");
+        }
+        Pointer out = interned.get(str);
+        if (out == null) {
+            Pointer created = create(str);
+            out = interned.putIfAbsent(str, created);
+            if (out == null) {
+                out = created;
+            } else {
+                msg(created, "release");
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Empties the cache of the current thread.  The cached NSStrings are
+     * autoreleased, so this should be called inside an autorelease pool.
+     * Interned strings are kept.
+     */
+    public static void clear() {
+        Lru cache = caches.get();
+        for (Pointer str : cache.values()) {
+            msg(str, "autorelease");
+        }
+        cache.clear();
+        cache.cleanable.clean();
+        caches.remove();
+    }
+
+    /**
+     * Gets the number of conversions that were served from the cache or
+     * from the interned strings.
+     *
+     * @return The number of hits.
+     */
+    public static long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of cacheable conversions that had to create a new
+     * NSString.
+     *
+     * @return The number of misses.
+     */
+    public static long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of NSStrings that were dropped from a full cache.
+     *
+     * @return The number of evictions.
+     */
+    public static long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the fraction of lookups that were hits.
+     *
+     * @return The hit rate between 0 and 1, or 0 if there were no lookups.
+     */
+    public static double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double)h / total;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts.
+     */
+    public static void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    /**
+     * Creates an NSString that is owned by the caller.
+     */
+    private static Pointer create(String str) {
+        return msgPointer(msgPointer("NSString", "alloc"), "initWithUTF8String:", str);
+    }
+
+    /**
+     * The LRU cache of one thread.
+     */
+    private static final class Lru extends LinkedHashMap<String,Pointer> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Releases the cached strings once the thread is collected.
+         */
+        final transient Cleaner.Cleanable cleanable;
+
+        Lru() {
+            super(SIZE * 4 / 3 + 1, 0.75f, true);
+            cleanable = ProxyReleaser.cleaner.register(Thread.currentThread(), new Release(this));
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Pointer> eldest) {
+            if (size() > SIZE) {
+                msg(eldest.getValue(), "autorelease");
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Releases the strings of a thread's cache.  It runs on the cleaner
+     * thread after the thread has been collected, or from {@link #clear()} on
+     * the thread itself, so the cache is never in use meanwhile.
+     */
+    private static final class Release implements Runnable {
+        private final Lru cache;
+
+        Release(Lru cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void run() {
+            for (Pointer str : cache.values()) {
+                ProxyReleaser.releaseLater(Pointer.nativeValue(str));
+            }
+            cache.clear();
+        }
+    }
+}
@@ -2,10 +2,10 @@ package ca.weblite.objc;
 
 import static ca.weblite.objc.RuntimeUtils.*;
 import com.sun.jna.Pointer;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
 
 /**
  * A wrapper around a native (Objective-C) object that allows for sending
@@ -36,7 +36,10 @@ public class Proxy implements Peerable {
      * that we don't create different Proxy objects for the same Objective-C 
      * native pointer.
      */
-    private static final Map<Pointer,Proxy> proxyCache = new HashMap<>();
+    private static final ProxyCache proxyCache = new ProxyCache();
+    
+    private static final AtomicIntegerFieldUpdater<Proxy> RETAIN_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(Proxy.class, "retainCount");
     
     /**
      * The client that is used to make requests to the Objective-C runtime.
@@ -49,7 +52,90 @@ public class Proxy implements Peerable {
     Pointer peer;
     
     
-    private int retainCount = 0;
+    private volatile int retainCount = 0;
+    
+    private static volatile boolean nativeOwnership = Boolean.getBoolean("ca.weblite.objc.proxyOwnership");
+    
+    /**
+     * The native reference owned by this proxy, if it was loaded while
+     * native ownership was on.
+     */
+    private ProxyReleaser.Ownership ownership;
+    
+    /**
+     * The per-class counter of this proxy, if {@link ProxyMetrics} tracked
+     * its class when it was created.
+     */
+    ProxyMetrics.ClassStats classStats;
+    
+    /**
+     * The record of this proxy, if {@link ProxyLeakDetector} sampled it.
+     */
+    ProxyLeakDetector.Track leakTrack;
+    
+    /**
+     * Checks whether proxies loaded with {@link #load(Pointer)} own a native
+     * reference to their objects.
+     *
+     * @return True if native ownership is on.
+     */
+    public static boolean isNativeOwnership(){
+        return nativeOwnership;
+    }
+    
+    /**
+     * Turns native ownership on or off for proxies loaded from now on.  It can
+     * also be turned on with the system property
+     * {@code ca.weblite.objc.proxyOwnership=true}.
+     *
+     * <p>When it is on, {@link #load(Pointer)} returns a new proxy that sends
+     * the object a {@code retain} message, and the object is sent a
+     * {@code release} message some time after the proxy becomes unreachable,
+     * so that neither {@link #release(Object)} nor {@link #dispose(boolean)}
+     * has to be called.  These proxies are not kept in the proxy cache, so
+     * the same object may have several proxies; they are {@link #equals(Object) equal}.
+     * The releases are sent in batches on a background thread, or on the
+     * executor set with {@link #setReleaseExecutor(Executor)}.</p>
+     *
+     * @param enable True to turn native ownership on.
+     */
+    public static void setNativeOwnership(boolean enable){
+        nativeOwnership = enable;
+    }
+    
+    /**
+     * Sets the executor that the objects of collected proxies are released
+     * on, e.g. one that runs tasks on the main thread for objects that must
+     * be released there.
+     *
+     * @param executor The executor, or null to use a background thread.
+     */
+    public static void setReleaseExecutor(Executor executor){
+        ProxyReleaser.setExecutor(executor);
+    }
+    
+    /**
+     * Releases the objects of collected proxies that are waiting for the next
+     * batch, on the calling thread.
+     *
+     * @return The number of objects that were released.
+     */
+    public static int drainReleases(){
+        return ProxyReleaser.drain();
+    }
+    
+    /**
+     * Releases an object once a Java object that depends on it, such as a
+     * view of its contents, has been garbage collected.  The release is sent
+     * with those of collected proxies (see {@link #setReleaseExecutor(Executor)}).
+     * The caller must already have retained the object.
+     *
+     * @param owner The Java object.
+     * @param object The Objective-C object.
+     */
+    public static void releaseWhenUnreachable(Object owner, Pointer object){
+        ProxyReleaser.releaseWhenUnreachable(owner, Pointer.nativeValue(object));
+    }
     
     /**
      * Retains the Proxy object in the Cache.  This is not related to the
@@ -61,11 +147,8 @@ public class Proxy implements Peerable {
      * @return The object that was passed to it.
      */
     public static Object retain(Object obj){
-        synchronized(proxyCache){
-            if (obj instanceof Proxy) {
-                Proxy pobj = (Proxy)obj;
-                pobj.retainCount++;
-            }
+        if (obj instanceof Proxy) {
+            ((Proxy)obj).incrementRetainCount();
         }
         return obj;
     }
@@ -81,33 +164,83 @@ public class Proxy implements Peerable {
      * @return The object that was passed to it.
      */
     public static Object release(Object obj){
-        synchronized (proxyCache){
-            if (obj instanceof Proxy) {
-                Proxy pobj = (Proxy)obj;
-                pobj.retainCount--;
-                if ( pobj.retainCount <= 0 ){
-                    proxyCache.remove(pobj.getPeer());
-                }
+        if (obj instanceof Proxy) {
+            ProxyMetrics.releases.increment();
+            Proxy pobj = (Proxy)obj;
+            if (RETAIN_COUNT.decrementAndGet(pobj) <= 0 && pobj.getPeer() != null) {
+                proxyCache.removeIfUnused(pobj);
             }
         }
         return obj;
     }
     
     /**
-     * <p>drainCache.</p>
+     * Removes all proxies whose retain count has dropped to zero from the
+     * cache.
      */
     public static void drainCache(){
-        synchronized(proxyCache){
-            Set<Proxy> remove = new HashSet<Proxy>();
-            for ( Proxy p : proxyCache.values() ){
-                if ( p.retainCount == 0 ){
-                    remove.add(p);
-                }
-            }
-            for ( Proxy p : remove ){
-                proxyCache.remove(p.getPeer());
-            }
-        }
+        ProxyMetrics.drains.increment();
+        ProxyMetrics.drained.add(proxyCache.drain(Long.MAX_VALUE));
+    }
+    
+    /**
+     * Removes proxies whose retain count has dropped to zero from the cache
+     * for at most about the given time.  The cache is drained in segments,
+     * and each call continues with the segment after the last one that the
+     * previous call drained, so this can be called periodically to spread the
+     * work of a full drain.  Loads and releases of proxies in other segments
+     * are never blocked.
+     *
+     * @param timeout The time to spend.  At least one segment is drained.
+     * @param unit The unit of timeout.
+     * @return The number of proxies that were removed.
+     */
+    public static int drainCache(long timeout, TimeUnit unit){
+        ProxyMetrics.drains.increment();
+        int removed = proxyCache.drain(System.nanoTime() + unit.toNanos(timeout));
+        ProxyMetrics.drained.add(removed);
+        return removed;
+    }
+    
+    /**
+     * Gets the number of proxies in the cache.
+     *
+     * @return The number of cached proxies.
+     */
+    static int getCacheSize(){
+        return proxyCache.size();
+    }
+    
+    /**
+     * Gets the cached proxy for an object without retaining it.
+     *
+     * @param address The address of the object.
+     * @return The proxy, or null if none is cached.
+     */
+    static Proxy getCachedProxy(long address){
+        return proxyCache.get(address);
+    }
+    
+    /**
+     * Visits every cached proxy.
+     *
+     * @param action The action, which must not load or release proxies.
+     */
+    static void forEachCached(Consumer<Proxy> action){
+        proxyCache.forEach(action);
+    }
+    
+    /**
+     * Gets the retain count of this proxy in the cache.
+     *
+     * @return The retain count.
+     */
+    int getRetainCount(){
+        return retainCount;
+    }
+    
+    void incrementRetainCount(){
+        RETAIN_COUNT.incrementAndGet(this);
     }
     
     
@@ -162,16 +295,22 @@ public class Proxy implements Peerable {
      * @return A proxy that wraps the provided peer object.
      */
     public static Proxy load(Pointer peer){
-        synchronized (proxyCache){
-            Proxy cached = proxyCache.get(peer);
-            if ( cached == null ){
-                cached = new Proxy(peer);
-                proxyCache.put(peer, cached);
-            }
-            retain(cached);
-            return cached;
+        ProxyMetrics.loads.increment();
+        if (peer == null || Pointer.nativeValue(peer) == 0L) {
+            ProxyMetrics.misses.increment();
+            Proxy proxy = new Proxy(peer);
+            retain(proxy);
+            return proxy;
         }
-        
+        if (nativeOwnership) {
+            ProxyMetrics.misses.increment();
+            Proxy proxy = new Proxy(peer);
+            proxy.classStats = ProxyMetrics.created(peer);
+            proxy.ownership = ProxyReleaser.manage(proxy);
+            retain(proxy);
+            return proxy;
+        }
+        return proxyCache.load(peer);
     }
     
    
@@ -181,14 +320,17 @@ public class Proxy implements Peerable {
      *
      * @param sendDeallocMessage IF true, then this will also send a dealloc message
      * to the peer.  If false, then it will simply remove from the Proxy cache, but
-     * leave the Objective-C object intact.
+     * leave the Objective-C object intact.  A proxy that owns a native reference
+     * (see {@link #setNativeOwnership(boolean)}) releases it immediately.
      */
     public void dispose(boolean sendDeallocMessage){
-        synchronized(proxyCache) {
-            proxyCache.remove(getPeer());
-            if ( sendDeallocMessage ){
-                send("dealloc");
-            }
+        if (ownership != null) {
+            ownership.releaseNow();
+        } else if (getPeer() != null) {
+            proxyCache.remove(Pointer.nativeValue(getPeer()));
+        }
+        if ( sendDeallocMessage ){
+            send("dealloc");
         }
     }
     
@@ -315,6 +457,96 @@ public class Proxy implements Peerable {
         return sendDouble(sel(selector), args);
     }
     
+    /**
+     * Sends a message that returns an integer-class value (e.g. NSInteger or
+     * NSUInteger) without boxing or coercion.  See
+     * {@link Client#sendLong(Pointer, Pointer)}.  Use {@link #sendBoolean(Pointer, Object...)}
+     * for methods that return BOOL, as the upper bits of a BOOL return value are
+     * undefined on x86_64.
+     *
+     * @param selector The selector to call on the peer.
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer selector){
+        return client.sendLong(peer, selector);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value without boxing or coercion.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer selector, long arg){
+        return client.sendLong(peer, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns an integer-class value without boxing or coercion.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg An object, class, selector or pointer argument.
+     * @return The raw return value.
+     */
+    public long sendLong(Pointer selector, Pointer arg){
+        return client.sendLong(peer, selector, arg);
+    }
+    
+    /**
+     * Sends a message that returns a double (or CGFloat) without boxing.
+     * Unlike {@link #sendDouble(Pointer, Object...)}, the message signature
+     * isn't checked, so this must only be used for methods that return a
+     * floating point value.
+     *
+     * @param selector The selector to call on the peer.
+     * @return The return value.
+     */
+    public double sendRawDouble(Pointer selector){
+        return client.sendDouble(peer, selector);
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing or coercion.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg An integer-class argument (e.g. NSInteger, NSUInteger, BOOL).
+     */
+    public void sendVoid(Pointer selector, long arg){
+        client.sendVoid(peer, selector, arg);
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing or coercion.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg An object, class, selector or pointer argument.
+     */
+    public void sendVoid(Pointer selector, Pointer arg){
+        client.sendVoid(peer, selector, arg);
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg A double argument (e.g. CGFloat).
+     */
+    public void sendVoid(Pointer selector, double arg){
+        client.sendVoid(peer, selector, arg);
+    }
+    
+    /**
+     * Sends a message whose return value is ignored, without boxing.
+     *
+     * @param selector The selector to call on the peer.
+     * @param arg A double argument (e.g. CGFloat).
+     * @param arg2 A double argument (e.g. CGFloat).
+     */
+    public void sendVoid(Pointer selector, double arg, double arg2){
+        client.sendVoid(peer, selector, arg, arg2);
+    }
+    
     /**
      * A wrapper for the send() method, that returns a boolean.
      *
@@ -0,0 +1,329 @@
+package ca.weblite.objc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.sun.jna.Pointer;
+
+/**
+ * The cache behind {@link Proxy#load(Pointer)}, which maps the address of an
+ * Objective-C object to its Proxy.
+ *
+ * <p>The cache is split into segments by a hash of the address, and each
+ * segment is an open-addressed table of primitive {@code long} keys guarded by
+ * its own lock.  Threads that load different objects rarely contend, and no
+ * operation ever holds more than one segment's lock.  A Proxy is found and its
+ * retain count incremented under the lock of its segment, and it is only
+ * removed under that lock if its count is still zero, so a concurrent
+ * {@link Proxy#load(Pointer)} and {@link Proxy#release(Object)} can't leave a
+ * retained Proxy out of the cache.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ProxyCache {
+
+    private static final int SEGMENT_SHIFT = 6;
+
+    private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * The segment that the next {@link #drain(long)} starts with.
+     */
+    private final AtomicInteger drainCursor = new AtomicInteger();
+
+    ProxyCache() {
+        for (int i=0; i<SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private static long hash(long address) {
+        return address * 0x9E3779B97F4A7C15L;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int)(hash >>> (64 - SEGMENT_SHIFT))];
+    }
+
+    /**
+     * Gets the cached Proxy for an object, creating it if there is none, and
+     * increments its retain count.
+     *
+     * <p>A new Proxy, its class statistics and its leak detection sample,
+     * which take native calls and a stack trace, are created outside the
+     * lock.  If another thread cached a Proxy for the object meanwhile, that
+     * one is used and the new one is discarded.</p>
+     *
+     * @param peer The object.  It must not be null.
+     * @return The Proxy.
+     */
+    Proxy load(Pointer peer) {
+        long address = Pointer.nativeValue(peer);
+        long hash = hash(address);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Proxy proxy = segment.get(address, hash);
+            if (proxy != null) {
+                ProxyMetrics.hits.increment();
+                proxy.incrementRetainCount();
+                return proxy;
+            }
+        }
+        Proxy created = new Proxy(peer);
+        created.classStats = ProxyMetrics.created(peer);
+        created.leakTrack = ProxyLeakDetector.sample(created);
+        Proxy proxy;
+        synchronized (segment) {
+            proxy = segment.get(address, hash);
+            if (proxy == null) {
+                ProxyMetrics.misses.increment();
+                proxy = created;
+                segment.put(address, hash, proxy);
+            } else {
+                ProxyMetrics.hits.increment();
+            }
+            proxy.incrementRetainCount();
+        }
+        if (proxy != created) {
+            ProxyMetrics.discarded(created);
+            ProxyLeakDetector.removed(created);
+        }
+        return proxy;
+    }
+
+    /**
+     * Gets the cached Proxy for an object without retaining it.
+     *
+     * @param address The address of the object.
+     * @return The Proxy, or null if there is none.
+     */
+    Proxy get(long address) {
+        long hash = hash(address);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.get(address, hash);
+        }
+    }
+
+    /**
+     * Removes a Proxy if it is still the cached one for its object and its
+     * retain count is zero or less.
+     *
+     * @param proxy The Proxy.
+     * @return True if it was removed.
+     */
+    boolean removeIfUnused(Proxy proxy) {
+        long address = Pointer.nativeValue(proxy.getPeer());
+        long hash = hash(address);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            if (proxy.getRetainCount() > 0 || segment.get(address, hash) != proxy) {
+                return false;
+            }
+            segment.remove(address, hash);
+            return true;
+        }
+    }
+
+    /**
+     * Removes whichever Proxy is cached for an object.
+     *
+     * @param address The address of the object.
+     * @return The Proxy that was removed, or null if there was none.
+     */
+    Proxy remove(long address) {
+        long hash = hash(address);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.remove(address, hash);
+        }
+    }
+
+    /**
+     * Gets the number of cached proxies.  Segments are counted one at a time,
+     * so the result is only exact if nothing is loaded or released meanwhile.
+     *
+     * @return The number of proxies.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Visits every cached proxy, one segment at a time, while holding the
+     * segment's lock.
+     *
+     * @param action The action, which must not use the cache.
+     */
+    void forEach(Consumer<Proxy> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Removes the proxies whose retain count is zero or less, one segment at
+     * a time, until every segment has been visited or the deadline has passed.
+     * Each call starts with the segment after the last one that the previous
+     * call visited, so repeated short calls eventually cover the whole cache.
+     *
+     * @param deadline The {@link System#nanoTime()} after which to stop, or
+     * {@link Long#MAX_VALUE} to visit every segment.
+     * @return The number of proxies that were removed.
+     */
+    int drain(long deadline) {
+        int removed = 0;
+        for (int i=0; i<SEGMENTS; i++) {
+            Segment segment = segments[drainCursor.getAndIncrement() & (SEGMENTS - 1)];
+            synchronized (segment) {
+                removed += segment.drain();
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * A linear-probing table.  Address 0 marks an empty slot; the null
+     * object is never cached.  Callers hold the segment's lock.
+     */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Proxy[] values = new Proxy[INITIAL_CAPACITY];
+
+        /**
+         * Written under the lock, and read without it by {@link ProxyCache#size()}.
+         */
+        volatile int size;
+
+        private static int indexFor(long hash, int mask) {
+            return (int)(hash ^ (hash >>> 32)) & mask;
+        }
+
+        Proxy get(long key, long hash) {
+            int mask = keys.length - 1;
+            for (int i = indexFor(hash, mask); ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) {
+                    return values[i];
+                } else if (k == 0L) {
+                    return null;
+                }
+            }
+        }
+
+        void put(long key, long hash, Proxy value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = indexFor(hash, mask);
+            while (keys[i] != 0L && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0L) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        Proxy remove(long key, long hash) {
+            int mask = keys.length - 1;
+            for (int i = indexFor(hash, mask); ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) {
+                    Proxy out = values[i];
+                    delete(i);
+                    return out;
+                } else if (k == 0L) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Empties a slot, shifting back later entries of the same probe
+         * sequence so that lookups don't need tombstones.
+         */
+        private void delete(int hole) {
+            ProxyMetrics.removed(values[hole]);
+            ProxyLeakDetector.removed(values[hole]);
+            int mask = keys.length - 1;
+            int i = hole;
+            while (true) {
+                i = (i + 1) & mask;
+                long k = keys[i];
+                if (k == 0L) {
+                    break;
+                }
+                int home = indexFor(hash(k), mask);
+                // Move the entry into the hole unless its home slot lies
+                // cyclically in (hole, i]
+                if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+                    keys[hole] = k;
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0L;
+            values[hole] = null;
+            size--;
+        }
+
+        void forEach(Consumer<Proxy> action) {
+            for (int i=0; i<keys.length; i++) {
+                if (keys[i] != 0L) {
+                    action.accept(values[i]);
+                }
+            }
+        }
+
+        int drain() {
+            int removed = 0;
+            int i = 0;
+            while (i < keys.length) {
+                if (keys[i] != 0L && values[i].getRetainCount() <= 0) {
+                    // An entry may be shifted into this slot, so look at it again
+                    delete(i);
+                    removed++;
+                } else {
+                    i++;
+                }
+            }
+            return removed;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Proxy[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Proxy[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j=0; j<oldKeys.length; j++) {
+                long k = oldKeys[j];
+                if (k != 0L) {
+                    int i = indexFor(hash(k), mask);
+                    while (keys[i] != 0L) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = k;
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
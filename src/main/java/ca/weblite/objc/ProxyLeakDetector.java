@@ -0,0 +1,363 @@
+package ca.weblite.objc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Finds proxies that stay in the proxy cache because
+ * {@link Proxy#release(Object)} was never called for them.
+ *
+ * <p>Leak detection is off by default.  When it is turned on with
+ * {@link #setSamplingRate(double)} or the system property
+ * {@code ca.weblite.objc.leakDetection.samplingRate}, that fraction of the
+ * proxies created by {@link Proxy#load(Pointer)} is tracked, along with the
+ * stack trace and the selector of the message that returned the object.  A
+ * tracked proxy that is still retained in the cache when it is older than the
+ * maximum age ({@link #setMaxAge(long, TimeUnit)} or
+ * {@code ca.weblite.objc.leakDetection.maxAge} in milliseconds, default one
+ * minute) is reported as a {@link Leak}.</p>
+ *
+ * <p>This is a heuristic based on age alone.  The cache holds every retained
+ * proxy strongly, so whether the application still uses a proxy can't be
+ * told apart from a missing release; proxies that are meant to live long,
+ * such as windows or delegates kept in fields, are reported too.  Set the
+ * maximum age above the lifetime of such objects, or filter them out in the
+ * listener.</p>
+ *
+ * <p>The tracked proxies are checked every
+ * {@code ca.weblite.objc.leakDetection.checkInterval} milliseconds (default
+ * 10000) while detection is on, and whenever {@link #report()} is called.
+ * Each leak is passed to the listener once; by default it is logged as a
+ * warning.  Scheduled checks run on the thread that releases the objects of
+ * collected proxies, so the listener should return quickly.  Proxies that are not sampled
+ * cost one extra random number when they are created, so a low sampling rate
+ * can be left on in production canaries.  Proxies that own a native reference
+ * (see {@link Proxy#setNativeOwnership(boolean)}) are not tracked, since they
+ * are released when they become unreachable.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public final class ProxyLeakDetector {
+
+    private static final Logger LOG = Logger.getLogger(ProxyLeakDetector.class.getName());
+
+    private static volatile double samplingRate = Double.parseDouble(System.getProperty("ca.weblite.objc.leakDetection.samplingRate", "0"));
+
+    /**
+     * Whether the sampling rate is above zero.  Checked on every send that
+     * maps a return value, so it is kept as a separate flag.
+     */
+    static volatile boolean enabled = samplingRate > 0.0;
+
+    private static volatile long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("ca.weblite.objc.leakDetection.maxAge", 60000L));
+
+    private static final long CHECK_INTERVAL = Math.max(1L, Long.getLong("ca.weblite.objc.leakDetection.checkInterval", 10000L));
+
+    private static volatile Consumer<Leak> listener = leak -> LOG.log(Level.WARNING, leak.toString());
+
+    private static final Set<Track> tracks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The selector of the message whose return value is being mapped on each
+     * thread, while detection is on.
+     */
+    private static final ThreadLocal<Pointer> currentSelector = new ThreadLocal<>();
+
+    /**
+     * The scheduled check, while detection is on.
+     */
+    private static ScheduledFuture<?> check;
+
+    static {
+        if (enabled) {
+            scheduleCheck();
+        }
+    }
+
+    private ProxyLeakDetector() {
+
+    }
+
+    /**
+     * Gets the fraction of new proxies that are tracked.
+     *
+     * @return The sampling rate between 0 and 1.
+     */
+    public static double getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * Sets the fraction of new proxies that are tracked.  Setting it to 0
+     * turns leak detection off; proxies that are already tracked stay tracked.
+     *
+     * @param rate The sampling rate between 0 and 1.
+     */
+    public static void setSamplingRate(double rate) {
+        if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("Sampling rate must be between 0 and 1: "+rate);
+        }
+        samplingRate = rate;
+        enabled = rate > 0.0;
+        if (enabled) {
+            scheduleCheck();
+        } else {
+            cancelCheck();
+        }
+    }
+
+    /**
+     * Sets the age after which a tracked proxy that is still retained in the
+     * cache is reported.
+     *
+     * @param maxAge The age.
+     * @param unit The unit of maxAge.
+     */
+    public static void setMaxAge(long maxAge, TimeUnit unit) {
+        maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Sets the listener that is passed each leak once, when it is first found.
+     *
+     * @param l The listener, or null to log leaks as warnings.
+     */
+    public static void setListener(Consumer<Leak> l) {
+        listener = l == null ? leak -> LOG.log(Level.WARNING, leak.toString()) : l;
+    }
+
+    /**
+     * Gets the number of proxies that are being tracked.
+     *
+     * @return The number of tracked proxies.
+     */
+    public static int getTrackedCount() {
+        return tracks.size();
+    }
+
+    /**
+     * Checks the tracked proxies now.  Leaks that weren't found before are
+     * also passed to the listener.
+     *
+     * @return All tracked proxies that are currently leaked.
+     */
+    public static List<Leak> report() {
+        List<Leak> leaks = new ArrayList<>();
+        long now = System.nanoTime();
+        long maxAge = maxAgeNanos;
+        for (Track track : tracks) {
+            int retainCount = track.proxy.getRetainCount();
+            long age = now - track.created;
+            if (retainCount > 0 && age >= maxAge) {
+                Leak leak = new Leak(track, retainCount, age);
+                leaks.add(leak);
+                if (!track.reported) {
+                    track.reported = true;
+                    listener.accept(leak);
+                }
+            }
+        }
+        return Collections.unmodifiableList(leaks);
+    }
+
+    /**
+     * Remembers the selector of a message whose return value is about to be
+     * mapped, so that a proxy created for it can be attributed to it.
+     *
+     * @param selector The selector.
+     * @return True if detection is on, in which case {@link #afterReturn()}
+     * must be called after the return value is mapped.
+     */
+    static boolean beforeReturn(Pointer selector) {
+        if (!enabled) {
+            return false;
+        }
+        currentSelector.set(selector);
+        return true;
+    }
+
+    static void afterReturn() {
+        currentSelector.remove();
+    }
+
+    /**
+     * Decides whether to track a new cached proxy.
+     *
+     * @param proxy The proxy.
+     * @return The track to keep in the proxy, or null if it isn't sampled.
+     */
+    static Track sample(Proxy proxy) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= samplingRate) {
+            return null;
+        }
+        Pointer selector = currentSelector.get();
+        Track track = new Track(proxy, selector == null ? null : RuntimeUtils.selName(selector), new Throwable("Proxy created here"));
+        tracks.add(track);
+        return track;
+    }
+
+    /**
+     * Stops tracking a proxy that was removed from the cache.
+     */
+    static void removed(Proxy proxy) {
+        Track track = proxy.leakTrack;
+        if (track != null) {
+            tracks.remove(track);
+        }
+    }
+
+    private static synchronized void scheduleCheck() {
+        if (check == null) {
+            check = ProxyReleaser.schedule(ProxyLeakDetector::scheduledCheck, CHECK_INTERVAL);
+        }
+    }
+
+    private static synchronized void cancelCheck() {
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+    }
+
+    private static void scheduledCheck() {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        try {
+            report();
+        } catch (RuntimeException ex) {
+            // Keep the check scheduled if the listener fails
+            LOG.log(Level.WARNING, "Leak listener failed", ex);
+        }
+    }
+
+    /**
+     * The record of a sampled proxy.  It is dropped when the proxy is
+     * removed from the cache.
+     */
+    static final class Track {
+        final Proxy proxy;
+        final long address;
+        final String className;
+        final String selector;
+        final Throwable trace;
+        final long created = System.nanoTime();
+        volatile boolean reported;
+
+        Track(Proxy proxy, String selector, Throwable trace) {
+            this.proxy = proxy;
+            this.address = Pointer.nativeValue(proxy.getPeer());
+            this.className = proxy.classStats == null ? null : proxy.classStats.name;
+            this.selector = selector;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * A tracked proxy that is still retained in the proxy cache after the
+     * maximum age.
+     */
+    public static final class Leak {
+        private final long address;
+        private final String className;
+        private final String selector;
+        private final StackTraceElement[] stackTrace;
+        private final int retainCount;
+        private final long ageNanos;
+
+        Leak(Track track, int retainCount, long ageNanos) {
+            this.address = track.address;
+            this.className = track.className;
+            this.selector = track.selector;
+            this.stackTrace = track.trace.getStackTrace();
+            this.retainCount = retainCount;
+            this.ageNanos = ageNanos;
+        }
+
+        /**
+         * Gets the address of the Objective-C object.
+         *
+         * @return The address.
+         */
+        public long getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the class of the object, if {@link ProxyMetrics} was tracking
+         * classes when the proxy was created.
+         *
+         * @return The class name, or null.
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * Gets the selector of the message that returned the object.
+         *
+         * @return The selector name, or null if the proxy wasn't created for
+         * a return value.
+         */
+        public String getSelector() {
+            return selector;
+        }
+
+        /**
+         * Gets the stack trace of the thread that created the proxy.
+         *
+         * @return A copy of the stack trace.
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        /**
+         * Gets the retain count of the proxy in the cache when it was checked.
+         *
+         * @return The retain count.
+         */
+        public int getRetainCount() {
+            return retainCount;
+        }
+
+        /**
+         * Gets the age of the proxy when it was checked.
+         *
+         * @param unit The unit to return.
+         * @return The age.
+         */
+        public long getAge(TimeUnit unit) {
+            return unit.convert(ageNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Proxy leak: 0x").append(Long.toHexString(address));
+            if (className != null) {
+                sb.append(" (").append(className).append(')');
+            }
+            if (selector != null) {
+                sb.append(" returned by ").append(selector);
+            }
+            sb.append(" is still retained ").append(retainCount).append(" time(s) after ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(ageNanos)).append(" ms.  Created at:");
+            for (StackTraceElement e : stackTrace) {
+                sb.append("\n\tat ").append(e);
+            }
+            return sb.toString();
+        }
+    }
+}
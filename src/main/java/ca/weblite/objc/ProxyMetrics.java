@@ -0,0 +1,336 @@
+package ca.weblite.objc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Counters for {@link Proxy#load(Pointer)} and the proxy cache.
+ *
+ * <p>The counters are {@link LongAdder}s that are always on; updating one
+ * costs about as much as an uncontended increment, so they can be left on in
+ * production.  Live proxies can also be counted per Objective-C class with
+ * {@link #setClassTracking(boolean)} or the system property
+ * {@code ca.weblite.objc.proxyMetrics.classes=true}.  That costs an
+ * {@code object_getClass} call each time a proxy is created.</p>
+ *
+ * <p>{@link #snapshot()} returns an immutable {@link Snapshot} of all
+ * counters.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public final class ProxyMetrics {
+
+    static final LongAdder loads = new LongAdder();
+    static final LongAdder hits = new LongAdder();
+    static final LongAdder misses = new LongAdder();
+    static final LongAdder releases = new LongAdder();
+    static final LongAdder removals = new LongAdder();
+    static final LongAdder drains = new LongAdder();
+    static final LongAdder drained = new LongAdder();
+    static final LongAdder ownedLive = new LongAdder();
+
+    private static final int HISTOGRAM_BUCKETS = 8;
+
+    private static volatile boolean classTracking = Boolean.getBoolean("ca.weblite.objc.proxyMetrics.classes");
+
+    private static final ConcurrentHashMap<Pointer,ClassStats> classes = new ConcurrentHashMap<>();
+
+    private ProxyMetrics() {
+
+    }
+
+    /**
+     * Checks whether live proxies are counted per class.
+     *
+     * @return True if class tracking is on.
+     */
+    public static boolean isClassTracking() {
+        return classTracking;
+    }
+
+    /**
+     * Turns counting live proxies per class on or off.  Only proxies created
+     * while it is on are counted.
+     *
+     * @param enable True to turn class tracking on.
+     */
+    public static void setClassTracking(boolean enable) {
+        classTracking = enable;
+    }
+
+    /**
+     * Resets the load, hit, miss, release, removal and drain counters.  Live
+     * counts are not affected.
+     */
+    public static void reset() {
+        loads.reset();
+        hits.reset();
+        misses.reset();
+        releases.reset();
+        removals.reset();
+        drains.reset();
+        drained.reset();
+    }
+
+    /**
+     * Takes a snapshot of the counters.  The retain count histogram is
+     * collected by visiting the cache one segment at a time, so it is
+     * consistent per segment but not across the whole cache.
+     *
+     * @return The snapshot.
+     */
+    public static Snapshot snapshot() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        Proxy.forEachCached(p -> histogram[bucketOf(p.getRetainCount())]++);
+        Map<String,Long> byClass = new LinkedHashMap<>();
+        for (ClassStats stats : classes.values()) {
+            long live = stats.live.sum();
+            if (live > 0) {
+                byClass.merge(stats.name, live, Long::sum);
+            }
+        }
+        return new Snapshot(Proxy.getCacheSize(), ownedLive.sum(), loads.sum(), hits.sum(), misses.sum(),
+                releases.sum(), removals.sum(), drains.sum(), drained.sum(), histogram, byClass);
+    }
+
+    /**
+     * Bucket 0 holds counts of zero or less, bucket 1 holds 1, bucket 2 holds
+     * 2-3, bucket 3 holds 4-7 and so on; the last bucket holds everything
+     * larger.
+     */
+    private static int bucketOf(int retainCount) {
+        if (retainCount <= 0) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(retainCount));
+    }
+
+    /**
+     * Gets the counter of a new proxy's class, and counts the proxy.
+     *
+     * @param peer The object of the new proxy.
+     * @return The counter to decrement when the proxy is removed, or null if
+     * class tracking is off.
+     */
+    static ClassStats created(Pointer peer) {
+        if (!classTracking) {
+            return null;
+        }
+        Pointer cls = Runtime.INSTANCE.object_getClass(peer);
+        if (cls == null) {
+            return null;
+        }
+        ClassStats stats = classes.get(cls);
+        if (stats == null) {
+            stats = classes.computeIfAbsent(cls, c -> new ClassStats(Runtime.INSTANCE.class_getName(c)));
+        }
+        stats.live.increment();
+        return stats;
+    }
+
+    /**
+     * Uncounts a new proxy that lost the race to be cached for its object.
+     */
+    static void discarded(Proxy proxy) {
+        if (proxy.classStats != null) {
+            proxy.classStats.live.decrement();
+        }
+    }
+
+    /**
+     * Counts the removal of a proxy from the cache.
+     */
+    static void removed(Proxy proxy) {
+        removals.increment();
+        if (proxy.classStats != null) {
+            proxy.classStats.live.decrement();
+        }
+    }
+
+    /**
+     * The live proxies of one Objective-C class.
+     */
+    static final class ClassStats {
+        final String name;
+        final LongAdder live = new LongAdder();
+
+        ClassStats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * An immutable copy of the proxy counters at one point in time.
+     */
+    public static final class Snapshot {
+        private final long cachedProxies;
+        private final long ownedProxies;
+        private final long loads;
+        private final long hits;
+        private final long misses;
+        private final long releases;
+        private final long removals;
+        private final long drains;
+        private final long drained;
+        private final long[] retainCountHistogram;
+        private final Map<String,Long> liveByClass;
+
+        Snapshot(long cachedProxies, long ownedProxies, long loads, long hits, long misses,
+                long releases, long removals, long drains, long drained,
+                long[] retainCountHistogram, Map<String,Long> liveByClass) {
+            this.cachedProxies = cachedProxies;
+            this.ownedProxies = ownedProxies;
+            this.loads = loads;
+            this.hits = hits;
+            this.misses = misses;
+            this.releases = releases;
+            this.removals = removals;
+            this.drains = drains;
+            this.drained = drained;
+            this.retainCountHistogram = retainCountHistogram;
+            this.liveByClass = Collections.unmodifiableMap(liveByClass);
+        }
+
+        /**
+         * Gets the number of live proxies: the cached ones, and the ones that
+         * own a native reference and haven't been collected.
+         *
+         * @return The number of live proxies.
+         */
+        public long getLiveProxies() {
+            return cachedProxies + ownedProxies;
+        }
+
+        /**
+         * Gets the number of proxies in the proxy cache.
+         *
+         * @return The number of cached proxies.
+         */
+        public long getCachedProxies() {
+            return cachedProxies;
+        }
+
+        /**
+         * Gets the number of proxies that own a native reference (see
+         * {@link Proxy#setNativeOwnership(boolean)}) and haven't been collected.
+         *
+         * @return The number of owning proxies.
+         */
+        public long getOwnedProxies() {
+            return ownedProxies;
+        }
+
+        /**
+         * Gets the number of calls to {@link Proxy#load(Pointer)}.
+         *
+         * @return The number of loads.
+         */
+        public long getLoads() {
+            return loads;
+        }
+
+        /**
+         * Gets the number of loads that found a cached proxy.
+         *
+         * @return The number of hits.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Gets the number of loads that created a proxy.
+         *
+         * @return The number of misses.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Gets the fraction of loads that found a cached proxy.
+         *
+         * @return The hit rate between 0 and 1, or 0 if there were no loads.
+         */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double)hits / total;
+        }
+
+        /**
+         * Gets the number of calls to {@link Proxy#release(Object)} with a proxy.
+         *
+         * @return The number of releases.
+         */
+        public long getReleases() {
+            return releases;
+        }
+
+        /**
+         * Gets the number of proxies removed from the cache, by releases,
+         * drains or {@link Proxy#dispose(boolean)}.
+         *
+         * @return The number of removals.
+         */
+        public long getRemovals() {
+            return removals;
+        }
+
+        /**
+         * Gets the number of calls to {@link Proxy#drainCache()} and
+         * {@link Proxy#drainCache(long, java.util.concurrent.TimeUnit)}.
+         *
+         * @return The number of drains.
+         */
+        public long getDrains() {
+            return drains;
+        }
+
+        /**
+         * Gets the number of proxies removed from the cache by drains.
+         *
+         * @return The number of drained proxies.
+         */
+        public long getDrained() {
+            return drained;
+        }
+
+        /**
+         * Gets the distribution of the retain counts of cached proxies.
+         * Element 0 counts proxies with a retain count of zero or less,
+         * element 1 those with 1, element 2 those with 2-3, element 3 those
+         * with 4-7 and so on; the last element also counts all larger ones.
+         *
+         * @return A copy of the histogram.
+         */
+        public long[] getRetainCountHistogram() {
+            return retainCountHistogram.clone();
+        }
+
+        /**
+         * Gets the number of live proxies per Objective-C class name, if class
+         * tracking is on.
+         *
+         * @return An unmodifiable map from class name to live proxies.
+         */
+        public Map<String,Long> getLiveByClass() {
+            return liveByClass;
+        }
+
+        @Override
+        public String toString() {
+            return "ProxyMetrics{live=" + getLiveProxies() + ", cached=" + cachedProxies + ", owned=" + ownedProxies
+                    + ", loads=" + loads + ", hits=" + hits + ", misses=" + misses + ", releases=" + releases
+                    + ", removals=" + removals + ", drains=" + drains + ", drained=" + drained
+                    + ", retainCounts=" + Arrays.toString(retainCountHistogram)
+                    + ", byClass=" + liveByClass + "}";
+        }
+    }
+}
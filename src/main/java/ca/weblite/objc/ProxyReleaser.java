@@ -0,0 +1,255 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Releases the Objective-C objects of proxies that own a native reference
+ * (see {@link Proxy#setNativeOwnership(boolean)}) once the proxies become
+ * unreachable.  Other objects whose owner has gone away, such as the
+ * strings cached for a thread that has exited, can be queued with
+ * {@link #releaseLater(long)}.
+ *
+ * <p>A {@link Cleaner} queues the address of each collected proxy's object.
+ * The queue is drained in batches of {@code ca.weblite.objc.releaseBatchSize}
+ * objects (default 256) when that many are waiting, and otherwise every
+ * {@code ca.weblite.objc.releaseInterval} milliseconds (default 100).  Each
+ * batch is released inside its own autorelease pool, on the executor set with
+ * {@link Proxy#setReleaseExecutor(Executor)}, or on a daemon thread if none
+ * was set.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ProxyReleaser {
+
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("ca.weblite.objc.releaseBatchSize", 256));
+
+    private static final long INTERVAL = Math.max(1L, Long.getLong("ca.weblite.objc.releaseInterval", 100L));
+
+    static final Cleaner cleaner = Cleaner.create();
+
+    private static final ConcurrentLinkedQueue<Long> pending = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Whether a drain has been handed to the executor and hasn't finished.
+     */
+    private static final AtomicBoolean draining = new AtomicBoolean();
+
+    private static final Runnable drainTask = () -> {
+        try {
+            drain();
+        } finally {
+            draining.set(false);
+        }
+    };
+
+    private static volatile Executor executor;
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private ProxyReleaser() {
+
+    }
+
+    /**
+     * Sets the executor that batches are released on.
+     *
+     * @param e The executor, or null to release on the scheduler's daemon thread.
+     */
+    static void setExecutor(Executor e) {
+        executor = e;
+    }
+
+    /**
+     * Takes a native reference to a proxy's object, to be released when the
+     * proxy is collected.
+     *
+     * @param proxy The proxy.  Its peer must not be null.
+     * @return The reference, which must be kept by the proxy.
+     */
+    static Ownership manage(Proxy proxy) {
+        startScheduler();
+        long address = Pointer.nativeValue(proxy.getPeer());
+        msgId(address, Selectors.RETAIN);
+        Ownership ownership = new Ownership(address, proxy.classStats);
+        ProxyMetrics.ownedLive.increment();
+        ownership.cleanable = cleaner.register(proxy, ownership);
+        return ownership;
+    }
+
+    /**
+     * Queues an object that the caller owns a reference to, to be released
+     * with the next batch.
+     *
+     * @param address The object.
+     */
+    static void releaseLater(long address) {
+        startScheduler();
+        enqueue(address);
+    }
+
+    /**
+     * Queues an object that the caller owns a reference to, to be released
+     * with the next batch after another object has been collected.
+     *
+     * @param owner The object to wait for.
+     * @param address The object to release.
+     */
+    static void releaseWhenUnreachable(Object owner, long address) {
+        cleaner.register(owner, () -> releaseLater(address));
+    }
+
+    /**
+     * Runs a task periodically on the releaser's daemon thread.
+     *
+     * @param task The task, which should be quick.
+     * @param period The delay between runs, in milliseconds.
+     * @return The scheduled task, for cancelling it.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long period) {
+        startScheduler();
+        return scheduler.scheduleWithFixedDelay(task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static void enqueue(long address) {
+        pending.add(address);
+        if (pendingCount.incrementAndGet() >= BATCH_SIZE) {
+            dispatch();
+        }
+    }
+
+    private static void dispatch() {
+        if (draining.compareAndSet(false, true)) {
+            Executor e = executor;
+            try {
+                if (e == null) {
+                    scheduler.execute(drainTask);
+                } else {
+                    e.execute(drainTask);
+                }
+            } catch (RuntimeException ex) {
+                draining.set(false);
+                throw ex;
+            }
+        }
+    }
+
+    private static void startScheduler() {
+        if (scheduler == null) {
+            synchronized (ProxyReleaser.class) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread t = new Thread(r, "objc-proxy-releaser");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    s.scheduleWithFixedDelay(() -> {
+                        if (pendingCount.get() > 0) {
+                            dispatch();
+                        }
+                    }, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+                    scheduler = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the objects that are waiting, in batches, each inside an
+     * autorelease pool.  Runs on the calling thread.
+     *
+     * @return The number of objects that were released.
+     */
+    static int drain() {
+        int released = 0;
+        while (pendingCount.get() > 0) {
+            AutoreleasePool pool = AutoreleasePool.push();
+            try {
+                Long address;
+                for (int i=0; i<BATCH_SIZE && (address = pending.poll()) != null; i++) {
+                    pendingCount.decrementAndGet();
+                    msgId(address, Selectors.RELEASE);
+                    released++;
+                }
+            } finally {
+                pool.close();
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Gets the number of objects waiting to be released.
+     *
+     * @return The number of objects.
+     */
+    static int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * A native reference held by a proxy.  It runs when the proxy is
+     * collected, so it must not refer to the proxy.
+     */
+    static final class Ownership implements Runnable {
+        private final long address;
+        private final ProxyMetrics.ClassStats classStats;
+        private volatile boolean released;
+        private Cleaner.Cleanable cleanable;
+
+        Ownership(long address, ProxyMetrics.ClassStats classStats) {
+            this.address = address;
+            this.classStats = classStats;
+        }
+
+        @Override
+        public void run() {
+            if (!released) {
+                uncount();
+                enqueue(address);
+            }
+        }
+
+        private void uncount() {
+            ProxyMetrics.ownedLive.decrement();
+            if (classStats != null) {
+                classStats.live.decrement();
+            }
+        }
+
+        /**
+         * Releases the reference now, on the calling thread, instead of when
+         * the proxy is collected.
+         */
+        synchronized void releaseNow() {
+            if (!released) {
+                released = true;
+                cleanable.clean();
+                uncount();
+                msgId(address, Selectors.RELEASE);
+            }
+        }
+    }
+
+    /**
+     * Selectors, resolved the first time an object is managed.
+     */
+    private static final class Selectors {
+        static final long RETAIN = selId("retain");
+        static final long RELEASE = selId("release");
+    }
+}
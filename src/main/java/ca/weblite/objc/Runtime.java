@@ -280,6 +280,18 @@ public interface Runtime extends Library {
      * @return a {@link com.sun.jna.Pointer} object.
      */
     public Pointer objc_allocateClassPair(Pointer superclass, String name, long extraBytes);
+    /**
+     * <p>objc_autoreleasePoolPop.</p>
+     *
+     * @param pool a {@link com.sun.jna.Pointer} object returned by {@link #objc_autoreleasePoolPush()}.
+     */
+    public void objc_autoreleasePoolPop(Pointer pool);
+    /**
+     * <p>objc_autoreleasePoolPush.</p>
+     *
+     * @return a {@link com.sun.jna.Pointer} object.
+     */
+    public Pointer objc_autoreleasePoolPush();
     /**
      * <p>objc_copyProtocolList.</p>
      *
@@ -0,0 +1,102 @@
+package ca.weblite.objc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Creates the {@link RuntimeMappings} interfaces on demand.
+ *
+ * <p>Every nested interface in {@link RuntimeMappings} has an {@code INSTANCE}
+ * field that builds a JNA library proxy when the interface is initialized.  The
+ * registry looks the interfaces up without initializing them, and creates
+ * the proxy for a by-value pattern the first time a message with that pattern
+ * is sent.  All of the proxies share one {@link NativeLibrary} handle.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class RuntimeMappingsRegistry {
+    
+    /**
+     * The name of the objective-c runtime library.
+     */
+    static final String LIBRARY_NAME = "objc.A";
+    
+    /**
+     * Library options used for every mapping, so that JNA resolves them all to
+     * the same {@link NativeLibrary} instance.
+     */
+    private static final Map<String,Object> OPTIONS = Collections.<String,Object>singletonMap(
+            Library.OPTION_CLASSLOADER, RuntimeMappings.class.getClassLoader());
+    
+    private static final Map<String,Object> mappings = new ConcurrentHashMap<>();
+    
+    private static volatile NativeLibrary library;
+    
+    private RuntimeMappingsRegistry() {
+        
+    }
+    
+    /**
+     * Gets the shared handle to the objective-c runtime library.
+     *
+     * @return The library.
+     */
+    static NativeLibrary getLibrary() {
+        NativeLibrary lib = library;
+        if (lib == null) {
+            synchronized (RuntimeMappingsRegistry.class) {
+                lib = library;
+                if (lib == null) {
+                    lib = NativeLibrary.getInstance(LIBRARY_NAME, OPTIONS);
+                    library = lib;
+                }
+            }
+        }
+        return lib;
+    }
+    
+    /**
+     * Gets the mapping interface for a by-value pattern, without initializing it.
+     *
+     * @param suffix The pattern, as a binary string in which a 1 in the i'th
+     *  index corresponds with a Structure.ByValue parameter.  E.g. "010".
+     * @return The interface class, e.g. {@code RuntimeMappings.Runtime010}.
+     * @throws ClassNotFoundException If there is no mapping for the pattern.
+     */
+    static Class<?> getMappingClass(String suffix) throws ClassNotFoundException {
+        return Class.forName("ca.weblite.objc.RuntimeMappings$Runtime"+suffix, false, RuntimeMappings.class.getClassLoader());
+    }
+    
+    /**
+     * Gets the mapping for a by-value pattern, creating it on first use.
+     *
+     * @param suffix The pattern, as a binary string in which a 1 in the i'th
+     *  index corresponds with a Structure.ByValue parameter.  E.g. "010".
+     * @return An instance of the corresponding {@link RuntimeMappings} interface.
+     * @throws ClassNotFoundException If there is no mapping for the pattern.
+     */
+    static Object getMapping(String suffix) throws ClassNotFoundException {
+        Object mapping = mappings.get(suffix);
+        if (mapping == null) {
+            Class<?> mappingClass = getMappingClass(suffix);
+            getLibrary();
+            mapping = mappings.computeIfAbsent(suffix, s -> Native.load(LIBRARY_NAME, mappingClass.asSubclass(Library.class), OPTIONS));
+        }
+        return mapping;
+    }
+    
+    /**
+     * Gets the number of mappings that have been created so far.
+     *
+     * @return The number of mappings.
+     */
+    static int getLoadedMappingCount() {
+        return mappings.size();
+    }
+}
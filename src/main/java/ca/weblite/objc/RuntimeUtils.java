@@ -3,10 +3,12 @@ package ca.weblite.objc;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
@@ -20,6 +22,7 @@ import com.sun.jna.ptr.PointerByReference;
 import com.sun.jna.ptr.ShortByReference;
 
 import ca.weblite.nativeutils.NativeUtils;
+import ca.weblite.objc.mappers.StructureMapping;
 
 /**
  * A Java class with static methods that interact with the Objective-C runtime.
@@ -70,11 +73,127 @@ public class RuntimeUtils {
      * Pointer nsObject = cls("NSObject");
      * }</pre>
      *
+     * <p>Lookups are cached, including lookups of names that don't resolve to
+     * a class.  If a class is registered after its name has already been looked
+     * up, call {@link #clearClassCache()} first.</p>
+     *
      * @param name The name of the class to retrieve.
-     * @return The pointer to the class structure.
+     * @return The pointer to the class structure, or null if there is no class
+     * with that name.
      */
     public static Pointer cls(String name){
-        return rt.objc_lookUpClass(name);
+        if (name == null) {
+            return rt.objc_lookUpClass(name);
+        }
+        Pointer cached = classCache.get(name);
+        if (cached != null) {
+            classCacheHits.increment();
+            return cached == MISSING_CLASS ? null : cached;
+        }
+        classCacheMisses.increment();
+        Pointer cls = rt.objc_lookUpClass(name);
+        classCache.putIfAbsent(name, cls == null ? MISSING_CLASS : cls);
+        return cls;
+    }
+    
+    /**
+     * Cache of class names to class pointers used by {@link #cls(String)}.
+     * Names that could not be resolved are stored as {@link #MISSING_CLASS}
+     * so that repeated lookups of non-existent classes stay in Java.
+     */
+    private static final ConcurrentHashMap<String,Pointer> classCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Cache of selector names to selector pointers used by {@link #sel(String)}.
+     * Selectors are never unregistered by the runtime, so entries never go stale.
+     */
+    private static final ConcurrentHashMap<String,Pointer> selectorCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Marker stored in the class cache for names that don't resolve to a class.
+     */
+    private static final Pointer MISSING_CLASS = new Pointer(0);
+    
+    private static final LongAdder classCacheHits = new LongAdder();
+    private static final LongAdder classCacheMisses = new LongAdder();
+    private static final LongAdder selectorCacheHits = new LongAdder();
+    private static final LongAdder selectorCacheMisses = new LongAdder();
+    
+    /**
+     * Resolves and caches the given class names ahead of time so that the
+     * first {@link #cls(String)} call for each of them doesn't need to cross
+     * into native code.  Typically called once at startup with the classes
+     * used in hot code paths.
+     *
+     * @param names The names of the classes to resolve.
+     */
+    public static void preloadClasses(String... names){
+        for (String name : names) {
+            cls(name);
+        }
+    }
+    
+    /**
+     * Resolves and caches the given selector names ahead of time so that the
+     * first {@link #sel(String)} call for each of them doesn't need to cross
+     * into native code.
+     *
+     * @param names The names of the selectors to register.
+     */
+    public static void preloadSelectors(String... names){
+        for (String name : names) {
+            sel(name);
+        }
+    }
+    
+    /**
+     * Removes all entries from the class cache, including names that were
+     * previously recorded as missing.  This should be called after loading a
+     * bundle or registering a class pair whose name was looked up before it
+     * existed.
+     */
+    public static void clearClassCache(){
+        classCache.clear();
+    }
+    
+    /**
+     * Returns the number of {@link #cls(String)} calls that were answered
+     * from the class cache.
+     *
+     * @return The class cache hit count.
+     */
+    public static long getClassCacheHits(){
+        return classCacheHits.sum();
+    }
+    
+    /**
+     * Returns the number of {@link #cls(String)} calls that had to look the
+     * class up in the Objective-C runtime.
+     *
+     * @return The class cache miss count.
+     */
+    public static long getClassCacheMisses(){
+        return classCacheMisses.sum();
+    }
+    
+    /**
+     * Returns the number of {@link #sel(String)} calls that were answered
+     * from the selector cache.
+     *
+     * @return The selector cache hit count.
+     */
+    public static long getSelectorCacheHits(){
+        return selectorCacheHits.sum();
+    }
+    
+    /**
+     * Returns the number of {@link #sel(String)} calls that had to register
+     * the selector with the Objective-C runtime.
+     *
+     * @return The selector cache miss count.
+     */
+    public static long getSelectorCacheMisses(){
+        return selectorCacheMisses.sum();
     }
     
     /**
@@ -115,13 +234,27 @@ public class RuntimeUtils {
     
     /**
      * Returns a pointer to the selector specified by the given selector name.
+     * Selector pointers are cached after the first lookup.
      *
      * @param name a {@link java.lang.String} object.
      * @return Pointer to an Objective-C message selector.
      * @see <a href="http://developer.apple.com/library/ios/#documentation/cocoa/conceptual/objectivec/Chapters/ocSelectors.html">Objective-C Selectors Reference</a>
      */
     public static Pointer sel(String name){
-        return rt.sel_getUid(name);
+        if (name == null) {
+            return rt.sel_getUid(name);
+        }
+        Pointer cached = selectorCache.get(name);
+        if (cached != null) {
+            selectorCacheHits.increment();
+            return cached;
+        }
+        selectorCacheMisses.increment();
+        Pointer sel = rt.sel_getUid(name);
+        if (sel != null) {
+            selectorCache.putIfAbsent(name, sel);
+        }
+        return sel;
     }
     
     
@@ -155,6 +288,116 @@ public class RuntimeUtils {
         return selName(peer.getPeer());
     }
     
+    /**
+     * Looks up a class and returns its raw address.  This is the same as
+     * {@link #cls(String)}, and uses the same cache, but doesn't hand out a
+     * Pointer, which is useful for code that works with the {@code msgId()}
+     * methods.
+     *
+     * @param name The name of the class.
+     * @return The address of the class, or 0 if there is no class with that name.
+     */
+    public static long clsId(String name){
+        Pointer cls = cls(name);
+        return cls == null ? 0L : Pointer.nativeValue(cls);
+    }
+    
+    /**
+     * Looks up a selector and returns its raw address.  This is the same as
+     * {@link #sel(String)}, and uses the same cache.
+     *
+     * @param name The name of the selector.
+     * @return The address of the selector.
+     */
+    public static long selId(String name){
+        Pointer sel = sel(name);
+        return sel == null ? 0L : Pointer.nativeValue(sel);
+    }
+    
+    /**
+     * Sends a message using raw addresses for the receiver, selector and
+     * arguments, and returns the raw result.  Object results are returned as
+     * addresses, so no Pointer or Proxy is created.  No coercion is performed,
+     * and this must not be used for methods that return floating point values
+     * or structures.
+     *
+     * @param receiver The address of the receiver, e.g. from {@link #clsId(String)}.
+     * @param selector The address of the selector, e.g. from {@link #selId(String)}.
+     * @return The raw return value.
+     */
+    public static long msgId(long receiver, long selector){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(receiver, selector);
+        }
+        return objc_msgSend(new Pointer(receiver), new Pointer(selector));
+    }
+    
+    /**
+     * Sends a message using raw addresses.  See {@link #msgId(long, long)}.
+     *
+     * @param receiver The address of the receiver, e.g. from {@link #clsId(String)}.
+     * @param selector The address of the selector, e.g. from {@link #selId(String)}.
+     * @param arg An integer-class argument or object address.
+     * @return The raw return value.
+     */
+    public static long msgId(long receiver, long selector, long arg){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(receiver, selector, arg);
+        }
+        return objc_msgSend(new Pointer(receiver), new Pointer(selector), arg);
+    }
+    
+    /**
+     * Sends a message using raw addresses.  See {@link #msgId(long, long)}.
+     *
+     * @param receiver The address of the receiver, e.g. from {@link #clsId(String)}.
+     * @param selector The address of the selector, e.g. from {@link #selId(String)}.
+     * @param arg An integer-class argument or object address.
+     * @param arg2 An integer-class argument or object address.
+     * @return The raw return value.
+     */
+    public static long msgId(long receiver, long selector, long arg, long arg2){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(receiver, selector, arg, arg2);
+        }
+        return objc_msgSend(new Pointer(receiver), new Pointer(selector), arg, arg2);
+    }
+    
+    /**
+     * Sends a message using raw addresses.  See {@link #msgId(long, long)}.
+     *
+     * @param receiver The address of the receiver, e.g. from {@link #clsId(String)}.
+     * @param selector The address of the selector, e.g. from {@link #selId(String)}.
+     * @param arg An integer-class argument or object address.
+     * @param arg2 An integer-class argument or object address.
+     * @param arg3 An integer-class argument or object address.
+     * @return The raw return value.
+     */
+    public static long msgId(long receiver, long selector, long arg, long arg2, long arg3){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(receiver, selector, arg, arg2, arg3);
+        }
+        return objc_msgSend(new Pointer(receiver), new Pointer(selector), arg, arg2, arg3);
+    }
+    
+    /**
+     * Sends a message using raw addresses.  See {@link #msgId(long, long)}.
+     *
+     * @param receiver The address of the receiver, e.g. from {@link #clsId(String)}.
+     * @param selector The address of the selector, e.g. from {@link #selId(String)}.
+     * @param arg An integer-class argument or object address.
+     * @param arg2 An integer-class argument or object address.
+     * @param arg3 An integer-class argument or object address.
+     * @param arg4 An integer-class argument or object address.
+     * @return The raw return value.
+     */
+    public static long msgId(long receiver, long selector, long arg, long arg2, long arg3, long arg4){
+        if (DirectRuntime.AVAILABLE) {
+            return DirectRuntime.objc_msgSend(receiver, selector, arg, arg2, arg3, arg4);
+        }
+        return objc_msgSend(new Pointer(receiver), new Pointer(selector), arg, arg2, arg3, arg4);
+    }
+    
     /**
      * Sends a message to a specified class using the given selector.
      *
@@ -227,112 +470,51 @@ public class RuntimeUtils {
 
     }
 
-    /**
-     * Generate the Runtime class name suffix in RuntimeMappings that defines
-     * the appropriate version of objc_msgSend for the given arguments.
-     * @param args The arguments to check.
-     * @return The suffix.  This will be a binary string in which a 1 in the i'th
-     *  index corresponds with a Structure.ByValue parameter.
-     */
-    private static String getArgsSuffix(Object... args) {
-        StringBuilder sb = new StringBuilder();
-
-        boolean foundStructByValue = false;
-        for (Object o : args) {
-            if (o instanceof Structure.ByValue) {
-                foundStructByValue = true;
-                sb.append("1");
-            } else {
-                sb.append("0");
-            }
-        }
-        if (foundStructByValue) {
-            return sb.toString();
-        }
-        return "";
-    }
-
-    /**
-     * Gets the parameter types a call to objc_msgSend should use, including the first two
-     * Pointer parameers.
-     * @param args The input arguments.
-     * @return The corresponding class types.  The output array will be longer than the input array by two, because
-     *  of the two Pointer parameters at the beginning.
-     */
-    private static Class<?>[] getArgsParamTypes( Object... args) {
-        Class<?>[] out = new Class<?>[args.length+2];
-        out[0] = Pointer.class;
-        out[1] = Pointer.class;
-        for (int i=0; i<args.length; i++) {
-            out[i+2] = (args[i] instanceof Structure.ByValue) ? Structure.ByValue.class: Object.class;
-        }
-        return out;
-    }
-
-    /**
-     * Merges the parameters into a single array, for use in the {@link #objc_msgSend(Pointer, Pointer, Object...)}
-     * method.
-     * @param receiver The receiver of the message.
-     * @param selector THe selector to call.
-     * @param args The arguments.
-     * @return The full parameter array.
-     */
-    private static Object[] merge(Pointer receiver, Pointer selector, Object... args) {
-        Object[] out = new Object[args.length+2];
-        out[0] = receiver;
-        out[1] = selector;
-        for (int i=0; i<args.length; i++) {
-            out[i+2] = args[i];
-        }
-        return out;
-    }
-
     /**
      *  A wrapper around the obj_msgSend() method to do preprocessing, and call the correct
-     *  variant.  If any of the parameters are {@link Structure.ByValue}, then the dispatch will
-     *  use reflection to find the correct JNA mapping.
+     *  variant.  On JDK 22 and later messages are sent through the FFM-based
+     *  {@link ForeignRuntime} when it is enabled and can pass all of the arguments.  Otherwise, messages whose arguments are all pointers or integers are sent through the
+     *  direct-mapped {@link DirectRuntime} when it is available.  If any of the parameters are
+     *  {@link Structure.ByValue}, then the message is sent through the {@link ByValueDispatch}
+     *  entry for that pattern of by-value arguments.  Messages with more arguments than the
+     *  generated mappings cover go through {@link GenericDispatch}.
      * @param receiver The receiver
      * @param selector The selector
      * @param args The arguments
      * @return The output
      */
-    private static long objc_msgSend(Pointer receiver, Pointer selector, Object... args) {
-
-        String argSuffix = getArgsSuffix(args);
-        if (args.length <= 7 && argSuffix.isEmpty()) {
-            switch (args.length) {
-                case 0:
-                    return rt.objc_msgSend(receiver, selector);
-                case 1:
-                    return rt.objc_msgSend(receiver, selector, args[0]);
-                case 2:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1]);
-                case 3:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2]);
-                case 4:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3]);
-                case 5:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4]);
-                case 6:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5]);
-                case 7:
-                    return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5], args[6]);
-                default:
-                    throw new IllegalArgumentException("msg currently supports max 4 args");
-            }
-        } else {
-            try {
-
-                Class runtimeClass = RuntimeUtils.class.getClassLoader().loadClass("ca.weblite.objc.RuntimeMappings$Runtime"+argSuffix);
-                Field runtimeInstanceField = runtimeClass.getField("INSTANCE");
-                Object runtimeInstance = runtimeInstanceField.get(null);
+    static long objc_msgSend(Pointer receiver, Pointer selector, Object... args) {
 
-
-
-                return (long)runtimeClass.getMethod("objc_msgSend", getArgsParamTypes(args)).invoke(runtimeInstance, merge(receiver, selector, args));
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
+        ForeignSender foreign = ForeignRuntime.SENDER;
+        if (foreign != null && foreign.canSend(args)) {
+            return foreign.msgSend(receiver, selector, args);
+        }
+        if (DirectRuntime.AVAILABLE && DirectRuntime.canSend(args)) {
+            return DirectRuntime.msgSend(receiver, selector, args);
+        }
+        int byValueMask = ByValueDispatch.mask(args);
+        if (byValueMask != 0 && args.length <= ByValueDispatch.MAX_ARGS) {
+            return ByValueDispatch.get(args.length, byValueMask).msgSend(receiver, selector, args);
+        }
+        switch (args.length) {
+            case 0:
+                return rt.objc_msgSend(receiver, selector);
+            case 1:
+                return rt.objc_msgSend(receiver, selector, args[0]);
+            case 2:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1]);
+            case 3:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2]);
+            case 4:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3]);
+            case 5:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4]);
+            case 6:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5]);
+            case 7:
+                return rt.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5], args[6]);
+            default:
+                return GenericDispatch.msgSend(receiver, selector, args);
         }
 
     }
@@ -635,7 +817,18 @@ public class RuntimeUtils {
      * @param args Arguments
      * @return The result.
      */
-    private static double objc_msgSend_fpret(Pointer receiver, Pointer selector, Object... args) {
+    static double objc_msgSend_fpret(Pointer receiver, Pointer selector, Object... args) {
+        ForeignSender foreign = ForeignRuntime.SENDER;
+        if (foreign != null && foreign.canSend(args)) {
+            return foreign.msgSendFpret(receiver, selector, args);
+        }
+        if (DirectRuntime.AVAILABLE && DirectRuntime.canSend(args)) {
+            return DirectRuntime.msgSendFpret(receiver, selector, args);
+        }
+        int byValueMask = ByValueDispatch.mask(args);
+        if (byValueMask != 0 && args.length <= ByValueDispatch.MAX_ARGS) {
+            return ByValueDispatch.get(args.length, byValueMask).msgSendFpret(receiver, selector, args);
+        }
         if (isArm64) {
             switch (args.length) {
                 case 0:
@@ -656,7 +849,7 @@ public class RuntimeUtils {
                 case 7:
                     return RuntmeArm64Extensions.INSTANCE.objc_msgSend(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5], args[6]);
                 default:
-                    throw new IllegalArgumentException("objc_msgSend does not support "+args.length+" arguments yet");
+                    return GenericDispatch.msgSendFpret(receiver, selector, args);
             }
 
         }
@@ -679,7 +872,7 @@ public class RuntimeUtils {
             case 7:
                 return rt.objc_msgSend_fpret(receiver, selector, args[0], args[1], args[2], args[3], args[4], args[5], args[6]);
             default:
-                throw new IllegalArgumentException("objc_msgSend_fpret does not support "+args.length+" arguments yet");
+                return GenericDispatch.msgSendFpret(receiver, selector, args);
         }
     }
     
@@ -756,53 +949,54 @@ public class RuntimeUtils {
      *  on the return type of the message.
      */
     public static Object msg(boolean coerceReturn, boolean coerceArgs, Pointer receiver, Pointer selector, Object... args){
+        return msg(TypeMapper.getInstance(), coerceReturn, coerceArgs, receiver, selector, args);
+    }
+    
+    /**
+     * Variant of {@link #msg(boolean, boolean, Pointer, Pointer, Object...)} that
+     * coerces with the given mapper, e.g. that of a {@link Client}.
+     *
+     * @param mapper The mapper used to coerce the arguments and return value.
+     * @param coerceReturn If true, then the return value will be mapped to an appropriate
+     *  Java value.
+     * @param coerceArgs If true, then the inputs will be mapped from Java to appropriate
+     * C values.
+     * @param receiver The target of the message.
+     * @param selector The selector for the message.
+     * @param args The arguments to be passed in the message.
+     * @return The return value of the message.
+     */
+    static Object msg(TypeMapper mapper, boolean coerceReturn, boolean coerceArgs, Pointer receiver, Pointer selector, Object... args){
 
-        Pointer methodSignature = msgPointer(receiver, "methodSignatureForSelector:", selector);
-        if (Pointer.nativeValue(methodSignature) == 0L) {
-            throw new RuntimeException(new NoSuchMethodException("Method cannot be found for signature "+Pointer.nativeValue(selector)));
-        }
+        MethodSignature signature = getMethodSignature(receiver, selector);
        
-        int numArgs = (int)msg(methodSignature, "numberOfArguments");
+        int numArgs = signature.numArgs;
         if ( numArgs >=2   &&  numArgs != args.length+2 ){
             throw new RuntimeException("Wrong argument count.  The selector "+selName(selector)+" requires "+(numArgs-2)+" arguments, but received "+args.length);
         }
         
         
-        long returnTypePtr = msg(methodSignature, "methodReturnType");
-        String returnTypeSignature = new Pointer(returnTypePtr).getString(0);
+        String returnTypeSignature = signature.returnType;
         if ( numArgs == 0 && returnTypeSignature == null ){
             return msg(receiver, selector, args);
         }
         
         
         if ( coerceArgs && args.length > 0 ){
-            for ( int i=0; i<args.length; i++ ){
-                long out2 = msg(methodSignature, "getArgumentTypeAtIndex:", i+2);
-                String argumentTypeSignature = new Pointer(out2).getString(0);
-                args[i] = TypeMapper.getInstance().jToC(args[i], argumentTypeSignature, TypeMapper.getInstance());
+            for ( int i=0; i<args.length && i<signature.argumentEncodings.length; i++ ){
+                TypeEncoding argumentEncoding = signature.argumentEncodings[i];
+                Object arg = args[i];
+                args[i] = mapper.resolve(argumentEncoding, arg == null ? null : arg.getClass()).jToC(arg, argumentEncoding.getType(), mapper);
             }
         }
         
-        
-       String prefixes = "rnNoORV";
-        int offset = 0;
-        while ( prefixes.indexOf(returnTypeSignature.charAt(offset)) != -1 ){
-            offset++;
-            if ( offset > returnTypeSignature.length()-1 ){
-                break;
-            }
-        }
-        if ( offset > 0 ){
-            returnTypeSignature = returnTypeSignature.substring(offset);
-        }
-        
-        char returnTypeFirstChar = returnTypeSignature.charAt(0);
-        if ( "[{(".indexOf(returnTypeFirstChar) ==-1 ){
+        TypeEncoding returnEncoding = signature.returnEncoding;
+        if ( !returnEncoding.isAggregate() ){
             // We are not returning a structure so we'll just
             // do the message.
             
             // We need to handle doubles and floats separately
-            if ( "df".indexOf(returnTypeFirstChar) != -1 ){
+            if ( returnEncoding.isFloatingPoint() ){
                 Object res = msgDouble(receiver, selector, args);
                 for ( int i=0; i<args.length; i++){
                     Proxy.release(args[i]);
@@ -812,7 +1006,15 @@ public class RuntimeUtils {
             
                 long result = msg(receiver, selector, args);
                 if ( coerceReturn ){
-                    Object res2 =  TypeMapper.getInstance().cToJ(result, returnTypeSignature, TypeMapper.getInstance());
+                    boolean tracking = ProxyLeakDetector.beforeReturn(selector);
+                    Object res2;
+                    try {
+                        res2 =  mapper.resolve(returnEncoding, Long.class).cToJ(result, returnTypeSignature, mapper);
+                    } finally {
+                        if ( tracking ){
+                            ProxyLeakDetector.afterReturn();
+                        }
+                    }
                     for ( int i=0; i<args.length; i++){
                         Proxy.release(args[i]);
                     }
@@ -827,13 +1029,153 @@ public class RuntimeUtils {
         }
         
 
-        Object output =  msg(receiver, selector, args);
+        Object output = msgStructure(mapper, coerceReturn, returnEncoding, receiver, selector, args);
         for ( int i=0; i<args.length; i++){
             Proxy.release(args[i]);
         }
         return output;
     }
     
+    /**
+     * Sends a message that returns a structure.  The structure is returned
+     * into a buffer that is reused per thread (through objc_msgSend_stret on
+     * x86_64 if it is larger than 16 bytes), and then converted by the
+     * {@link TypeMapping} for its type, or copied if it isn't coerced.
+     *
+     * @param mapper The type mapper that converts the return value.
+     * @param coerceReturn Whether to convert the return value.
+     * @param returnEncoding The type encoding of the structure.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The native arguments.
+     * @return The converted structure, or a {@link Memory} holding a copy of it.
+     */
+    static Object msgStructure(TypeMapper mapper, boolean coerceReturn, TypeEncoding returnEncoding, Pointer receiver, Pointer selector, Object[] args){
+        StructureLayout layout = StructureLayout.of(returnEncoding);
+        Memory buffer = StructureLayout.acquireBuffer(layout.bufferSize);
+        try {
+            Pointer result = layout.send(buffer, receiver, selector, args);
+            if ( coerceReturn ){
+                return mapper.resolve(returnEncoding, Pointer.class).cToJ(result, returnEncoding.getType(), mapper);
+            }
+            return StructureMapping.copy(result, layout.size);
+        } finally {
+            StructureLayout.releaseBuffer(buffer);
+        }
+    }
+    
+    
+    /**
+     * Cache of parsed method signatures, keyed by receiver class and selector.
+     */
+    private static final ConcurrentHashMap<MethodSignature.Key,MethodSignature> methodSignatureCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Classes whose instances can answer methodSignatureForSelector: differently
+     * from one another (e.g. WLJavaProxy peers of Java objects, and NSProxy
+     * subclasses), so their signatures must not be cached per class.
+     */
+    private static final ConcurrentHashMap<Pointer,Boolean> signatureCacheableClasses = new ConcurrentHashMap<>();
+    
+    /**
+     * Looks up the method signature of the given selector for a receiver.
+     * After the first lookup for a given receiver class, the signature is
+     * served from the cache without querying the NSMethodSignature again.
+     *
+     * @param receiver The receiver of the message.
+     * @param selector The selector of the message.
+     * @return The method signature.
+     * @throws RuntimeException wrapping a {@link NoSuchMethodException} if the
+     * receiver has no method for the selector.
+     */
+    static MethodSignature getMethodSignature(Pointer receiver, Pointer selector){
+        Pointer cls = receiver == null ? null : rt.object_getClass(receiver);
+        MethodSignature.Key key = null;
+        if (cls != null && isSignatureCacheable(cls)) {
+            key = new MethodSignature.Key(Pointer.nativeValue(cls), Pointer.nativeValue(selector));
+            MethodSignature cached = methodSignatureCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        Pointer methodSignature = msgPointer(receiver, "methodSignatureForSelector:", selector);
+        if (Pointer.nativeValue(methodSignature) == 0L) {
+            throw new RuntimeException(new NoSuchMethodException("Method cannot be found for signature "+Pointer.nativeValue(selector)));
+        }
+        MethodSignature signature = MethodSignature.read(methodSignature);
+        if (key != null) {
+            methodSignatureCache.putIfAbsent(key, signature);
+        }
+        return signature;
+    }
+    
+    private static boolean isSignatureCacheable(Pointer cls){
+        Boolean cacheable = signatureCacheableClasses.get(cls);
+        if (cacheable == null) {
+            cacheable = true;
+            Pointer javaProxy = cls("WLJavaProxy");
+            Pointer nsProxy = cls("NSProxy");
+            for (Pointer c = cls; c != null && Pointer.nativeValue(c) != 0L; c = rt.class_getSuperclass(c)) {
+                if (c.equals(javaProxy) || c.equals(nsProxy)) {
+                    cacheable = false;
+                    break;
+                }
+            }
+            signatureCacheableClasses.putIfAbsent(cls, cacheable);
+        }
+        return cacheable;
+    }
+    
+    /**
+     * Removes all cached method signatures for the given selector, for every
+     * class.  This must be called when a method is added or replaced with a
+     * different type encoding at runtime.  {@link #replaceMethod(Pointer, Pointer, Pointer, String)}
+     * and {@link #setMethodImplementation(Pointer, Pointer)} call this automatically.
+     *
+     * @param selector The selector whose signatures should be discarded.
+     */
+    public static void invalidateMethodSignatures(Pointer selector){
+        long sel = Pointer.nativeValue(selector);
+        methodSignatureCache.keySet().removeIf(k -> k.selector == sel);
+    }
+    
+    /**
+     * Removes all cached method signatures.
+     */
+    public static void clearMethodSignatureCache(){
+        methodSignatureCache.clear();
+    }
+    
+    /**
+     * Wrapper around {@link Runtime#class_replaceMethod(Pointer, Pointer, Pointer, String)}
+     * that also discards any cached signatures for the selector.
+     *
+     * @param cls The class to modify.
+     * @param selector The selector of the method to add or replace.
+     * @param imp The new implementation.
+     * @param types The type encoding of the new method.
+     * @return The previous implementation, or null if there was none.
+     */
+    public static Pointer replaceMethod(Pointer cls, Pointer selector, Pointer imp, String types){
+        Pointer previous = rt.class_replaceMethod(cls, selector, imp, types);
+        invalidateMethodSignatures(selector);
+        return previous;
+    }
+    
+    /**
+     * Wrapper around {@link Runtime#method_setImplementation(Pointer, Pointer)}
+     * that also discards any cached signatures for the method's selector.
+     *
+     * @param method The method to modify.
+     * @param imp The new implementation.
+     * @return The previous implementation.
+     */
+    public static Pointer setMethodImplementation(Pointer method, Pointer imp){
+        Pointer previous = rt.method_setImplementation(method, imp);
+        invalidateMethodSignatures(rt.method_getName(method));
+        return previous;
+    }
     
     /**
      * Returns the size of an array that is specified in a signature.
@@ -917,24 +1259,25 @@ public class RuntimeUtils {
      }
     
     /**
-     * Converts a Java string to an NSString object.
+     * Converts a Java string to an NSString object.  Long strings are copied
+     * as UTF-16 through a reusable buffer rather than encoded as UTF-8.
      *
      * @param str The Java string to convert.
      * @return Pointer to the NSString that corresponds to this string.
      */
     public static Pointer str(String str){
-        return msgPointer("NSString", "stringWithUTF8String:", str);
+        return StringConversion.toNSString(str);
     }
     
     /**
-     * Converts A native NSString object to a Java string.
+     * Converts A native NSString object to a Java string.  Long strings are
+     * copied as UTF-16 through a reusable buffer rather than decoded from UTF-8.
      *
      * @param str a {@link com.sun.jna.Pointer} object.
      * @return A Java string.
      */
     public static String str(Pointer str){
-        long ptr = msg(str, "UTF8String");
-        return new Pointer(ptr).getString(0);
+        return StringConversion.toJava(str);
     }
     
     /**
@@ -965,21 +1308,12 @@ public class RuntimeUtils {
      * @see <a href="https://developer.apple.com/library/mac/#documentation/Cocoa/Conceptual/ObjCRuntimeGuide/Articles/ocrtTypeEncodings.html">Objective-C Type Encodings</a>
      */
     public static ByReference getAsReferenceWrapper(Object val, String signature){
-        String prefixes = "rnNoORV";
-        int offset = 0;
-        while ( prefixes.indexOf(signature.charAt(offset)) != -1 ){
-            offset++;
-            if ( offset > signature.length()-1 ){
-                break;
-            }
-        }
-        if ( offset > 0 ){
-            signature = signature.substring(offset);
-        }
+        TypeEncoding encoding = TypeEncoding.of(signature);
+        signature = encoding.getType();
         
-        switch ( signature.charAt(0)){
-            case 'i':
-            case 'I':
+        switch ( encoding.getKind() ){
+            case INT:
+            case UNSIGNED_INT:
                 int intVal;
                 if (val instanceof Number) {
                     intVal = ((Number) val).intValue();
@@ -989,8 +1323,8 @@ public class RuntimeUtils {
                     throw new RuntimeException("Attempt to pass ineligible value to int: "+val);
                 }
                 return new IntByReference(intVal);
-            case 's':
-            case 'S':
+            case SHORT:
+            case UNSIGNED_SHORT:
                 short shortVal;
                 if (val instanceof Number) {
                     shortVal = ((Number) val).shortValue();
@@ -1001,10 +1335,10 @@ public class RuntimeUtils {
                 }
                 return new ShortByReference(shortVal);
                 
-            case 'l':
-            case 'L':
-            case 'q':
-            case 'Q':
+            case LONG:
+            case UNSIGNED_LONG:
+            case LONG_LONG:
+            case UNSIGNED_LONG_LONG:
                 long longVal;
                 if (val instanceof Number) {
                     longVal = ((Number) val).longValue();
@@ -1015,7 +1349,7 @@ public class RuntimeUtils {
                 }
                 return new LongByReference(longVal);
                 
-            case 'f':
+            case FLOAT:
                 float floatVal;
                 if (val instanceof Number) {
                     floatVal = ((Number) val).floatValue();
@@ -1026,7 +1360,7 @@ public class RuntimeUtils {
                 }
                 return new FloatByReference(floatVal);
                 
-            case 'd':
+            case DOUBLE:
                 double doubleVal;
                 if (val instanceof Number) {
                     doubleVal = ((Number) val).doubleValue();
@@ -1036,10 +1370,10 @@ public class RuntimeUtils {
                     throw new RuntimeException("Attempt to pass ineligible value to double: "+val);
                 }
                 return new DoubleByReference(doubleVal);
-            case 'B':
-            case 'b':
-            case 'c':
-            case 'C':
+            case BOOL:
+            case BITFIELD:
+            case CHAR:
+            case UNSIGNED_CHAR:
                 byte byteVal;
                 if (val instanceof Boolean) {
                     byteVal = (byte) (Boolean.TRUE.equals(val) ? 1 : 0);
@@ -1051,9 +1385,9 @@ public class RuntimeUtils {
                     throw new RuntimeException("Attempt to pass ineligible value to byte: " + val);
                 }
                 return new ByteByReference(byteVal);
-            case 'v':
+            case VOID:
                 return null;
-            case '^':
+            case POINTER:
             default:
                 if (val instanceof Pointer) {
                     return new PointerByReference((Pointer)val);
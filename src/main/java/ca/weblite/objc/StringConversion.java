@@ -0,0 +1,174 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.foundation.NSRange;
+
+/**
+ * Converts between Java strings and NSStrings.
+ *
+ * <p>Short strings go through UTF-8 ({@code UTF8String} and
+ * {@code stringWithUTF8String:}), which needs the fewest native calls.  Long
+ * strings are copied as UTF-16 with {@code getCharacters:range:} and
+ * {@code stringWithCharacters:length:} through a buffer that is reused per
+ * thread, which avoids the charset decoding and a native allocation per
+ * string.  The length at which the UTF-16 path is used can be set with the
+ * system property {@code ca.weblite.objc.stringCopyThreshold}.  The path for
+ * an NSString is picked from its {@code length}, so a long string is never
+ * materialized as UTF-8.</p>
+ *
+ * <p>Each thread keeps its buffers between conversions, so repeated
+ * conversions of large strings (e.g. the contents of a text view) don't
+ * allocate.  Buffers larger than {@code ca.weblite.objc.stringBufferLimit}
+ * bytes (default 16 MB) are not kept, and buffers that stay mostly unused for
+ * {@value #SHRINK_AFTER} conversions in a row are dropped.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class StringConversion {
+    
+    /**
+     * Strings with at least this many UTF-16 chars use the UTF-16 path.
+     */
+    static final int THRESHOLD = Integer.getInteger("ca.weblite.objc.stringCopyThreshold", 256);
+    
+    /**
+     * Buffers larger than this are not kept between conversions.
+     */
+    private static final long MAX_RETAINED_BYTES = Long.getLong("ca.weblite.objc.stringBufferLimit", 16L << 20);
+    
+    /**
+     * The number of conversions in a row that use less than a quarter of the
+     * buffers, after which they are dropped.
+     */
+    static final int SHRINK_AFTER = 64;
+    
+    private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+    
+    private StringConversion() {
+        
+    }
+    
+    /**
+     * Converts an NSString to a Java string.
+     *
+     * @param nsString The NSString.
+     * @return The Java string.
+     */
+    static String toJava(Pointer nsString) {
+        if (nsString == null || Pointer.nativeValue(nsString) == 0L) {
+            return toJavaUTF8(nsString);
+        }
+        long length = msg(nsString, sel("length"));
+        if (length < THRESHOLD) {
+            return toJavaUTF8(nsString);
+        }
+        return toJavaUTF16(nsString, length);
+    }
+    
+    /**
+     * Converts a Java string to an autoreleased NSString.
+     *
+     * @param str The Java string.
+     * @return The NSString.
+     */
+    static Pointer toNSString(String str) {
+        if (str == null || str.length() < THRESHOLD) {
+            return toNSStringUTF8(str);
+        }
+        return toNSStringUTF16(str);
+    }
+    
+    static String toJavaUTF8(Pointer nsString) {
+        long ptr = msg(nsString, "UTF8String");
+        return new Pointer(ptr).getString(0);
+    }
+    
+    static String toJavaUTF16(Pointer nsString, long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("NSString is too long for a Java string: "+length);
+        }
+        int len = (int)length;
+        Buffers b = buffers.get();
+        Memory memory = b.memory(2L * len);
+        NSRange.ByValue range = b.range;
+        range.location = 0;
+        range.length = len;
+        msg(nsString, sel("getCharacters:range:"), memory, range);
+        char[] chars = b.chars(len);
+        memory.read(0, chars, 0, len);
+        String out = new String(chars, 0, len);
+        b.trim(len);
+        return out;
+    }
+    
+    static Pointer toNSStringUTF8(String str) {
+        return msgPointer("NSString", "stringWithUTF8String:", str);
+    }
+    
+    static Pointer toNSStringUTF16(String str) {
+        int len = str.length();
+        Buffers b = buffers.get();
+        char[] chars = b.chars(len);
+        str.getChars(0, len, chars, 0);
+        Memory memory = b.memory(2L * len);
+        memory.write(0, chars, 0, len);
+        Pointer out = msgPointer(cls("NSString"), sel("stringWithCharacters:length:"), memory, (long)len);
+        b.trim(len);
+        return out;
+    }
+    
+    /**
+     * The reusable buffers of one thread.
+     */
+    private static final class Buffers {
+        private Memory memory;
+        private char[] chars = new char[0];
+        private int idle;
+        final NSRange.ByValue range = new NSRange.ByValue();
+        
+        Memory memory(long size) {
+            if (memory == null || memory.size() < size) {
+                memory = new Memory(Math.max(size, 2L * THRESHOLD));
+            }
+            return memory;
+        }
+        
+        char[] chars(int size) {
+            if (chars.length < size) {
+                chars = new char[size];
+            }
+            return chars;
+        }
+        
+        /**
+         * Drops buffers that are too large to keep around, or that have been
+         * much larger than needed for a while.
+         *
+         * @param used The number of chars that the last conversion used.
+         */
+        void trim(int used) {
+            if (4L * used < chars.length) {
+                idle++;
+            } else {
+                idle = 0;
+            }
+            if (idle >= SHRINK_AFTER) {
+                memory = null;
+                chars = new char[0];
+                idle = 0;
+                return;
+            }
+            if (memory != null && memory.size() > MAX_RETAINED_BYTES) {
+                memory = null;
+            }
+            if (2L * chars.length > MAX_RETAINED_BYTES) {
+                chars = new char[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package ca.weblite.objc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * The memory layout of a structure type encoding, and how the structure is
+ * returned from objc_msgSend on this architecture.
+ *
+ * <p>Layouts are computed from the parsed {@link TypeEncoding} the first time
+ * a structure type is returned, and cached.  On x86_64, structures larger
+ * than 16 bytes are returned through objc_msgSend_stret into a buffer that is
+ * reused per thread.  Smaller structures on x86_64, and all structures on
+ * arm64, come back in registers (or through x8 on arm64), so they are
+ * returned through objc_msgSend as one of the {@link Structure.ByValue}
+ * carrier classes below, which have the same register classification as the
+ * real structure.  JNA creates a carrier object for each such message, but
+ * the carrier's memory is the same per-thread buffer, so no native memory is
+ * allocated.  When the FFM backend is available it handles all cases with the
+ * exact layout instead.</p>
+ *
+ * <p>Without the FFM backend, structures that hold a long double can't be
+ * returned on x86_64, and structures larger than 512 bytes can't be returned
+ * on arm64.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class StructureLayout {
+
+    /**
+     * Buffers larger than this are not kept between messages.
+     */
+    private static final long MAX_RETAINED_BUFFER = 4096;
+
+    private static final ConcurrentHashMap<TypeEncoding,StructureLayout> layouts = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Memory[]> buffers = ThreadLocal.withInitial(() -> new Memory[1]);
+
+    /**
+     * Leaf types of a structure for register classification.
+     */
+    private static final int INTEGER = 0;
+    private static final int FLOAT = 1;
+    private static final int DOUBLE = 2;
+    private static final int LONG_DOUBLE = 3;
+
+    final TypeEncoding encoding;
+    final long size;
+    final int alignment;
+
+    /**
+     * Whether the structure is returned through objc_msgSend_stret.
+     */
+    final boolean stret;
+
+    /**
+     * The class that JNA should return the structure as, or null if it is
+     * returned through objc_msgSend_stret or can't be returned with JNA.
+     */
+    final Class<? extends Structure> carrier;
+
+    /**
+     * The size of the buffer to send with: the size of the structure, or of
+     * its carrier if that is larger.
+     */
+    final long bufferSize;
+
+    private StructureLayout(TypeEncoding encoding) {
+        this.encoding = encoding;
+        this.size = encoding.getSize();
+        this.alignment = encoding.getAlignment();
+        List<long[]> leaves = new ArrayList<>();
+        flatten(encoding, 0, leaves);
+        if (DirectRuntime.IS_ARM64) {
+            stret = false;
+            carrier = arm64Carrier(size, leaves);
+        } else {
+            boolean x87 = false;
+            for (long[] leaf : leaves) {
+                x87 |= leaf[2] == LONG_DOUBLE;
+            }
+            stret = size > 16;
+            carrier = stret || x87 ? null : x86Carrier(size, leaves);
+        }
+        bufferSize = carrier == null ? size : Math.max(size, Structure.newInstance(carrier).size());
+    }
+
+    /**
+     * Gets the layout of a structure type.
+     *
+     * @param encoding The type encoding of the structure.
+     * @return The layout.
+     * @throws IllegalArgumentException if the size of the type can't be determined.
+     */
+    static StructureLayout of(TypeEncoding encoding) {
+        StructureLayout layout = layouts.get(encoding);
+        if (layout == null) {
+            layout = layouts.computeIfAbsent(encoding, StructureLayout::new);
+        }
+        return layout;
+    }
+
+    /**
+     * Sends a message that returns this structure.
+     *
+     * @param buffer A buffer of at least {@link #bufferSize} bytes, from {@link #acquireBuffer(long)}.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return A pointer to the returned structure, which is either the buffer
+     * or memory owned by JNA.
+     */
+    Pointer send(Memory buffer, Pointer receiver, Pointer selector, Object[] args) {
+        ForeignSender foreign = ForeignRuntime.SENDER;
+        if (foreign != null && foreign.canSend(args)) {
+            foreign.msgSendStructure(buffer, this, receiver, selector, args);
+            return buffer;
+        }
+        if (stret) {
+            if (DirectRuntime.Stret.AVAILABLE && DirectRuntime.canSend(args)) {
+                long stretAddr = Pointer.nativeValue(buffer);
+                long self = DirectRuntime.address(receiver);
+                long op = DirectRuntime.address(selector);
+                switch (args.length) {
+                    case 0:
+                        DirectRuntime.Stret.objc_msgSend_stret(stretAddr, self, op);
+                        return buffer;
+                    case 1:
+                        DirectRuntime.Stret.objc_msgSend_stret(stretAddr, self, op, DirectRuntime.toLong(args[0]));
+                        return buffer;
+                    case 2:
+                        DirectRuntime.Stret.objc_msgSend_stret(stretAddr, self, op, DirectRuntime.toLong(args[0]), DirectRuntime.toLong(args[1]));
+                        return buffer;
+                    case 3:
+                        DirectRuntime.Stret.objc_msgSend_stret(stretAddr, self, op, DirectRuntime.toLong(args[0]), DirectRuntime.toLong(args[1]), DirectRuntime.toLong(args[2]));
+                        return buffer;
+                    case 4:
+                        DirectRuntime.Stret.objc_msgSend_stret(stretAddr, self, op, DirectRuntime.toLong(args[0]), DirectRuntime.toLong(args[1]), DirectRuntime.toLong(args[2]), DirectRuntime.toLong(args[3]));
+                        return buffer;
+                    default:
+                        break;
+                }
+            }
+            GenericDispatch.msgSendStret(buffer, receiver, selector, args);
+            return buffer;
+        }
+        if (carrier == null) {
+            throw new UnsupportedOperationException("Returning "+encoding+" requires the FFM backend (JDK 22 or later)");
+        }
+        Carrier.into(buffer);
+        try {
+            return GenericDispatch.msgSendStructure(carrier, receiver, selector, args).getPointer();
+        } finally {
+            Carrier.into(null);
+        }
+    }
+
+    /**
+     * Takes the current thread's structure buffer, growing it if needed.  It
+     * must be handed back with {@link #releaseBuffer(Memory)}.  A message sent
+     * while the buffer is taken (e.g. from a callback) gets its own buffer.
+     *
+     * @param size The minimum size of the buffer.
+     * @return The buffer.
+     */
+    static Memory acquireBuffer(long size) {
+        Memory[] slot = buffers.get();
+        Memory buffer = slot[0];
+        slot[0] = null;
+        if (buffer == null || buffer.size() < size) {
+            buffer = new Memory(Math.max(size, 64));
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back to the current thread.
+     *
+     * @param buffer The buffer from {@link #acquireBuffer(long)}.
+     */
+    static void releaseBuffer(Memory buffer) {
+        if (buffer.size() <= MAX_RETAINED_BUFFER) {
+            buffers.get()[0] = buffer;
+        }
+    }
+
+    /**
+     * Collects the scalar members of a type as {offset, size, class} triples.
+     */
+    private static void flatten(TypeEncoding encoding, long offset, List<long[]> leaves) {
+        switch (encoding.getKind()) {
+            case STRUCT: {
+                List<TypeEncoding> fields = encoding.getFields();
+                // The end of the bytes that bit fields have covered so far
+                long bitsEnd = 0;
+                for (int i=0; i<fields.size(); i++) {
+                    TypeEncoding field = fields.get(i);
+                    long bitOffset = encoding.getFieldBitOffset(i);
+                    if (field.getKind() == TypeEncoding.Kind.BITFIELD) {
+                        // Bit fields are integers over the bytes that hold them
+                        long start = Math.max(bitOffset / 8, bitsEnd);
+                        long end = (bitOffset + field.getCount() + 7) / 8;
+                        if (end > start) {
+                            leaves.add(new long[]{offset + start, end - start, INTEGER});
+                            bitsEnd = end;
+                        }
+                    } else {
+                        flatten(field, offset + bitOffset / 8, leaves);
+                    }
+                }
+                break;
+            }
+            case UNION:
+                for (TypeEncoding field : encoding.getFields()) {
+                    flatten(field, offset, leaves);
+                }
+                break;
+            case ARRAY: {
+                long elementSize = encoding.getPointee().getSize();
+                for (int i=0; i<encoding.getCount(); i++) {
+                    flatten(encoding.getPointee(), offset + i * elementSize, leaves);
+                }
+                break;
+            }
+            case FLOAT:
+                leaves.add(new long[]{offset, 4, FLOAT});
+                break;
+            case DOUBLE:
+                leaves.add(new long[]{offset, 8, DOUBLE});
+                break;
+            case LONG_DOUBLE:
+                leaves.add(new long[]{offset, encoding.getSize(), DirectRuntime.IS_ARM64 ? DOUBLE : LONG_DOUBLE});
+                break;
+            default:
+                leaves.add(new long[]{offset, encoding.getSize(), INTEGER});
+        }
+    }
+
+    /**
+     * Picks the carrier on arm64: homogeneous floating point aggregates of up
+     * to four members come back in vector registers, other structures of up
+     * to 16 bytes in x0 and x1, and larger ones through memory at x8.  For
+     * those, any carrier that is at least as large will do.
+     */
+    private static Class<? extends Structure> arm64Carrier(long size, List<long[]> leaves) {
+        long hfaType = leaves.isEmpty() ? INTEGER : leaves.get(0)[2];
+        for (long[] leaf : leaves) {
+            if (leaf[2] != hfaType) {
+                hfaType = INTEGER;
+            }
+        }
+        if (hfaType != INTEGER && leaves.size() <= 4 && size == leaves.size() * leaves.get(0)[1]) {
+            switch (leaves.size()) {
+                case 1: return hfaType == FLOAT ? F1.class : D1.class;
+                case 2: return hfaType == FLOAT ? F2.class : D2.class;
+                case 3: return hfaType == FLOAT ? F3.class : D3.class;
+                default: return hfaType == FLOAT ? F4.class : D4.class;
+            }
+        }
+        switch ((int)Math.min((size + 7) / 8, 9)) {
+            case 0: case 1: return L1.class;
+            case 2: return L2.class;
+            case 3: return L3.class;
+            case 4: return L4.class;
+            case 5: return L5.class;
+            case 6: return L6.class;
+            case 7: return L7.class;
+            case 8: return L8.class;
+            default: return size <= 512 ? L64.class : null;
+        }
+    }
+
+    /**
+     * Picks the carrier on x86_64 for structures of up to 16 bytes: each
+     * eightbyte is returned in an SSE register if it only holds floating point
+     * members, and in an integer register otherwise.
+     */
+    private static Class<? extends Structure> x86Carrier(long size, List<long[]> leaves) {
+        boolean[] sse = {true, true};
+        for (long[] leaf : leaves) {
+            if (leaf[2] == INTEGER) {
+                sse[(int)(leaf[0] / 8)] = false;
+            }
+        }
+        if (size <= 8) {
+            return sse[0] ? D1.class : L1.class;
+        }
+        if (sse[0]) {
+            return sse[1] ? D2.class : DL.class;
+        }
+        return sse[1] ? LD.class : L2.class;
+    }
+
+    /*
+     * Carriers.  Ln has n integer words, Dn and Fn are homogeneous aggregates
+     * of n doubles or floats, and LD and DL mix one integer and one SSE
+     * eightbyte.  They must be public for JNA to instantiate them.
+     */
+
+    /**
+     * The base of the carriers.  JNA creates a new carrier for each returned
+     * structure, before the message is sent; a carrier created while a buffer
+     * is set with {@link #into(Memory)} uses that buffer as its memory, so the
+     * structure is returned straight into it.
+     */
+    public abstract static class Carrier extends Structure implements Structure.ByValue {
+        private static final ThreadLocal<Memory[]> target = ThreadLocal.withInitial(() -> new Memory[1]);
+
+        /**
+         * Sets the buffer for the next carrier created on this thread.
+         *
+         * @param buffer The buffer, or null to clear it.
+         */
+        static void into(Memory buffer) {
+            target.get()[0] = buffer;
+        }
+
+        @Override
+        protected Memory autoAllocate(int size) {
+            Memory[] slot = target.get();
+            Memory buffer = slot[0];
+            if (buffer != null && buffer.size() >= size) {
+                slot[0] = null;
+                return buffer;
+            }
+            return super.autoAllocate(size);
+        }
+    }
+
+    public static class L1 extends Carrier {
+        public long a;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a");
+        }
+    }
+
+    public static class L2 extends Carrier {
+        public long a, b;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b");
+        }
+    }
+
+    public static class L3 extends Carrier {
+        public long a, b, c;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c");
+        }
+    }
+
+    public static class L4 extends Carrier {
+        public long a, b, c, d;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d");
+        }
+    }
+
+    public static class L5 extends Carrier {
+        public long a, b, c, d, e;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d", "e");
+        }
+    }
+
+    public static class L6 extends Carrier {
+        public long a, b, c, d, e, f;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d", "e", "f");
+        }
+    }
+
+    public static class L7 extends Carrier {
+        public long a, b, c, d, e, f, g;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d", "e", "f", "g");
+        }
+    }
+
+    public static class L8 extends Carrier {
+        public long a, b, c, d, e, f, g, h;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d", "e", "f", "g", "h");
+        }
+    }
+
+    public static class D1 extends Carrier {
+        public double a;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a");
+        }
+    }
+
+    public static class D2 extends Carrier {
+        public double a, b;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b");
+        }
+    }
+
+    public static class D3 extends Carrier {
+        public double a, b, c;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c");
+        }
+    }
+
+    public static class D4 extends Carrier {
+        public double a, b, c, d;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d");
+        }
+    }
+
+    public static class F1 extends Carrier {
+        public float a;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a");
+        }
+    }
+
+    public static class F2 extends Carrier {
+        public float a, b;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b");
+        }
+    }
+
+    public static class F3 extends Carrier {
+        public float a, b, c;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c");
+        }
+    }
+
+    public static class F4 extends Carrier {
+        public float a, b, c, d;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b", "c", "d");
+        }
+    }
+
+    public static class LD extends Carrier {
+        public long a;
+        public double b;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b");
+        }
+    }
+
+    public static class DL extends Carrier {
+        public double a;
+        public long b;
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a", "b");
+        }
+    }
+
+    public static class L64 extends Carrier {
+        public long[] a = new long[64];
+        @Override
+        protected List<String> getFieldOrder() {
+            return List.of("a");
+        }
+    }
+}
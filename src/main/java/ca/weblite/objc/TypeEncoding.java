@@ -0,0 +1,620 @@
+package ca.weblite.objc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A parsed <a href="https://developer.apple.com/library/archive/documentation/Cocoa/Conceptual/ObjCRuntimeGuide/Articles/ocrtTypeEncodings.html">Objective-C type encoding</a>.
+ *
+ * <p>Encodings are parsed once and interned, so {@link #of(String)} returns the
+ * same immutable instance for the same string, and code that converts values
+ * can switch on the precomputed {@link #getKind()} instead of re-scanning the
+ * string on every call.  Each instance also has a small unique {@link #getId()}
+ * that can be used to index lookup tables.</p>
+ *
+ * <pre>
+ * {@code
+ * TypeEncoding rect = TypeEncoding.of("r^{CGRect={CGPoint=dd}{CGSize=dd}}");
+ * rect.isConst();                                  // true
+ * rect.getKind();                                  // POINTER
+ * rect.getPointee().getName();                     // "CGRect"
+ * rect.getPointee().getFields().get(1).getType();  // "{CGSize=dd}"
+ * }
+ * </pre>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public final class TypeEncoding {
+
+    /**
+     * The kinds of types that can be encoded.
+     */
+    public enum Kind {
+        /** {@code c}: char, and BOOL on x86_64. */
+        CHAR,
+        /** {@code C}: unsigned char. */
+        UNSIGNED_CHAR,
+        /** {@code s}: short. */
+        SHORT,
+        /** {@code S}: unsigned short. */
+        UNSIGNED_SHORT,
+        /** {@code i}: int. */
+        INT,
+        /** {@code I}: unsigned int. */
+        UNSIGNED_INT,
+        /** {@code l}: long, which is encoded as 32 bits. */
+        LONG,
+        /** {@code L}: unsigned long, which is encoded as 32 bits. */
+        UNSIGNED_LONG,
+        /** {@code q}: long long, and NSInteger on 64 bit platforms. */
+        LONG_LONG,
+        /** {@code Q}: unsigned long long, and NSUInteger on 64 bit platforms. */
+        UNSIGNED_LONG_LONG,
+        /** {@code f}: float. */
+        FLOAT,
+        /** {@code d}: double. */
+        DOUBLE,
+        /** {@code D}: long double. */
+        LONG_DOUBLE,
+        /** {@code B}: C++ bool or C99 _Bool, and BOOL on arm64. */
+        BOOL,
+        /** {@code v}: void. */
+        VOID,
+        /** {@code *}: a C string. */
+        C_STRING,
+        /** {@code @}: an object, optionally with a class name or a block. */
+        OBJECT,
+        /** {@code #}: a class object. */
+        CLASS,
+        /** {@code :}: a selector. */
+        SELECTOR,
+        /** {@code ^type}: a pointer. */
+        POINTER,
+        /** {@code [count type]}: an array. */
+        ARRAY,
+        /** {@code {name=type...}}: a structure. */
+        STRUCT,
+        /** {@code (name=type...)}: a union. */
+        UNION,
+        /** {@code bnum}: a bit field. */
+        BITFIELD,
+        /** {@code ?}: an unknown type, e.g. a function pointer. */
+        UNKNOWN
+    }
+
+    /** Qualifier {@code r}. */
+    public static final int QUALIFIER_CONST = 1;
+    /** Qualifier {@code n}. */
+    public static final int QUALIFIER_IN = 1 << 1;
+    /** Qualifier {@code N}. */
+    public static final int QUALIFIER_INOUT = 1 << 2;
+    /** Qualifier {@code o}. */
+    public static final int QUALIFIER_OUT = 1 << 3;
+    /** Qualifier {@code O}. */
+    public static final int QUALIFIER_BYCOPY = 1 << 4;
+    /** Qualifier {@code R}. */
+    public static final int QUALIFIER_BYREF = 1 << 5;
+    /** Qualifier {@code V}. */
+    public static final int QUALIFIER_ONEWAY = 1 << 6;
+
+    private static final String QUALIFIERS = "rnNoORV";
+
+    private static final ConcurrentHashMap<String,TypeEncoding> cache = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final int id;
+    private final String encoding;
+    private final String type;
+    private final int qualifiers;
+    private final Kind kind;
+    private final String name;
+    private final TypeEncoding elementType;
+    private final int count;
+    private final List<TypeEncoding> fields;
+    private final List<String> fieldNames;
+    private volatile long size = -1;
+    private int alignment;
+    private long[] fieldBitOffsets;
+
+    private TypeEncoding(String encoding, String type, int qualifiers, Kind kind, String name, TypeEncoding elementType, int count, List<TypeEncoding> fields, List<String> fieldNames) {
+        this.id = nextId.getAndIncrement();
+        this.encoding = encoding;
+        this.type = type;
+        this.qualifiers = qualifiers;
+        this.kind = kind;
+        this.name = name;
+        this.elementType = elementType;
+        this.count = count;
+        this.fields = fields;
+        this.fieldNames = fieldNames;
+    }
+
+    /**
+     * Returns the interned encoding for a type.  Only the first type in the
+     * string is parsed; anything after it (e.g. a stack offset) is ignored.
+     *
+     * @param encoding The type encoding, optionally with qualifiers.  E.g. "r*" or "{CGPoint=dd}".
+     * @return The parsed encoding.
+     * @throws IllegalArgumentException If the encoding is empty or malformed.
+     */
+    public static TypeEncoding of(String encoding) {
+        TypeEncoding out = cache.get(encoding);
+        if (out == null) {
+            out = new Parser(encoding).parseType();
+            if (!out.encoding.equals(encoding)) {
+                // Also serve the full string (e.g. with an offset) from the cache
+                cache.putIfAbsent(encoding, out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Parses a method type string, such as the types of a Method in the
+     * Objective-C runtime.  Stack offsets are skipped.
+     *
+     * @param types The method types.  E.g. "v24@0:8^{CGRect={CGPoint=dd}{CGSize=dd}}16"
+     * @return The return type followed by the argument types (including self and _cmd).
+     * @throws IllegalArgumentException If the types are malformed.
+     */
+    public static List<TypeEncoding> parseMethodTypes(String types) {
+        Parser parser = new Parser(types);
+        List<TypeEncoding> out = new ArrayList<>();
+        while (!parser.atEnd()) {
+            out.add(parser.parseType());
+            parser.skipOffset();
+        }
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Strips type qualifiers off an encoding.
+     *
+     * @param encoding The type encoding.
+     * @return The type, without qualifiers or any trailing offset.
+     */
+    public static String stripQualifiers(String encoding) {
+        return of(encoding).type;
+    }
+
+    /**
+     * Returns a small number that is unique to this instance.  Ids are handed out in
+     * the order that encodings are first parsed, so they can be used as indexes
+     * into lookup tables.
+     *
+     * @return The id.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the encoding this instance was parsed from, including qualifiers.
+     *
+     * @return The encoding.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the type without qualifiers.  This is what the {@link TypeMapping}s
+     * receive as their signature.
+     *
+     * @return The type.  E.g. "*" for "r*".
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the qualifiers as a bitmask of the {@code QUALIFIER_*} constants.
+     *
+     * @return The qualifiers.
+     */
+    public int getQualifiers() {
+        return qualifiers;
+    }
+
+    /**
+     * Checks whether the encoding has the const ({@code r}) qualifier.
+     *
+     * @return True if it is const.
+     */
+    public boolean isConst() {
+        return (qualifiers & QUALIFIER_CONST) != 0;
+    }
+
+    /**
+     * Returns the kind of type.
+     *
+     * @return The kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Checks whether the type is returned in floating point registers, i.e.
+     * whether the message must be sent through objc_msgSend_fpret.
+     *
+     * @return True for float, double and long double.
+     */
+    public boolean isFloatingPoint() {
+        return kind == Kind.FLOAT || kind == Kind.DOUBLE || kind == Kind.LONG_DOUBLE;
+    }
+
+    /**
+     * Checks whether the type is an aggregate (a structure, union or array).
+     *
+     * @return True for structures, unions and arrays.
+     */
+    public boolean isAggregate() {
+        return kind == Kind.STRUCT || kind == Kind.UNION || kind == Kind.ARRAY;
+    }
+
+    /**
+     * Returns the name of a structure or union, or the class name of an
+     * object type (e.g. {@code @"NSString"}).
+     *
+     * @return The name, or null if there is none.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the type that a pointer points to, or the element type of an array.
+     *
+     * @return The pointee or element type, or null for other kinds.
+     */
+    public TypeEncoding getPointee() {
+        return elementType;
+    }
+
+    /**
+     * Returns the number of elements of an array, or the width of a bit field.
+     *
+     * @return The count, or 0 for other kinds.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the fields of a structure or union.  This is empty if the
+     * encoding only names the structure (e.g. {@code {CGRect}}).
+     *
+     * @return The field types.
+     */
+    public List<TypeEncoding> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the names of the fields of a structure or union, where the
+     * encoding includes them (e.g. {@code {CGPoint="x"d"y"d}}).
+     *
+     * @return The field names, with null for fields that weren't named.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Returns the size of the type in bytes, with the natural alignment of the
+     * 64 bit platforms.  For a structure this includes padding.  Bit fields
+     * are packed into {@code unsigned int} storage units (or
+     * {@code unsigned long long} ones for fields wider than 32 bits), since
+     * the encoding doesn't record their declared type, and the size of a bit
+     * field is the size of its storage unit.
+     *
+     * @return The size.
+     * @throws IllegalArgumentException For void, and structures whose fields
+     * aren't part of the encoding.
+     */
+    public long getSize() {
+        if (size < 0) {
+            computeLayout();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the alignment of the type in bytes.
+     *
+     * @return The alignment.
+     * @throws IllegalArgumentException If the size can't be determined.
+     * @see #getSize()
+     */
+    public int getAlignment() {
+        if (size < 0) {
+            computeLayout();
+        }
+        return alignment;
+    }
+
+    private void computeLayout() {
+        long sz;
+        int align;
+        switch (kind) {
+            case CHAR: case UNSIGNED_CHAR: case BOOL:
+                sz = 1;
+                break;
+            case SHORT: case UNSIGNED_SHORT:
+                sz = 2;
+                break;
+            case INT: case UNSIGNED_INT: case LONG: case UNSIGNED_LONG: case FLOAT:
+                sz = 4;
+                break;
+            case LONG_LONG: case UNSIGNED_LONG_LONG: case DOUBLE:
+            case C_STRING: case OBJECT: case CLASS: case SELECTOR: case POINTER: case UNKNOWN:
+                sz = 8;
+                break;
+            case LONG_DOUBLE:
+                // long double is a double on arm64
+                sz = "aarch64".equals(System.getProperty("os.arch")) ? 8 : 16;
+                break;
+            case BITFIELD:
+                sz = count > 32 ? 8 : 4;
+                break;
+            case ARRAY:
+                sz = count * elementType.getSize();
+                alignment = elementType.getAlignment();
+                size = sz;
+                return;
+            case STRUCT:
+            case UNION: {
+                if (fields.isEmpty()) {
+                    throw new IllegalArgumentException("The fields of "+encoding+" are unknown");
+                }
+                long[] offsets = new long[fields.size()];
+                long bits = 0;
+                long end = 0;
+                align = 1;
+                for (int i=0; i<offsets.length; i++) {
+                    TypeEncoding field = fields.get(i);
+                    align = Math.max(align, field.getAlignment());
+                    if (kind == Kind.UNION) {
+                        end = Math.max(end, field.getSize());
+                    } else if (field.kind == Kind.BITFIELD) {
+                        // A bit field starts a new storage unit if it would
+                        // straddle one, as does a field of width 0
+                        long unitBits = 8L * field.getSize();
+                        if (field.count == 0 || bits / unitBits != (bits + field.count - 1) / unitBits) {
+                            bits = (bits + unitBits - 1) / unitBits * unitBits;
+                        }
+                        offsets[i] = bits;
+                        bits += field.count;
+                    } else {
+                        long offset = field.getOffset((bits + 7) / 8);
+                        offsets[i] = 8 * offset;
+                        bits = 8 * (offset + field.getSize());
+                    }
+                }
+                if (kind == Kind.STRUCT) {
+                    end = (bits + 7) / 8;
+                }
+                fieldBitOffsets = offsets;
+                alignment = align;
+                size = (end + align - 1) / align * align;
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot determine the size of "+encoding);
+        }
+        alignment = (int)sz;
+        size = sz;
+    }
+
+    /**
+     * Returns the offset of a field of a structure in bits, which is a whole
+     * number of bytes except for bit fields.  The fields of a union are all at
+     * offset 0.
+     *
+     * @param index The index of the field.
+     * @return The offset.
+     * @throws IllegalArgumentException If the size of the type can't be determined.
+     */
+    long getFieldBitOffset(int index) {
+        if (size < 0) {
+            computeLayout();
+        }
+        return fieldBitOffsets[index];
+    }
+
+    /**
+     * Returns the first offset at or after the given one that satisfies the
+     * alignment of this type.
+     */
+    long getOffset(long offset) {
+        int align = getAlignment();
+        return (offset + align - 1) / align * align;
+    }
+
+    /**
+     * Returns the encoding without qualifiers.
+     *
+     * @return The unqualified encoding, which is this instance if there are no qualifiers.
+     */
+    public TypeEncoding getUnqualified() {
+        return qualifiers == 0 ? this : of(type);
+    }
+
+    @Override
+    public String toString() {
+        return encoding;
+    }
+
+    /**
+     * Recursive descent parser that interns every (sub)type it parses.
+     */
+    private static final class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            if (s == null || s.isEmpty()) {
+                throw new IllegalArgumentException("Empty type encoding");
+            }
+            this.s = s;
+        }
+
+        boolean atEnd() {
+            return pos >= s.length();
+        }
+
+        void skipOffset() {
+            if (pos < s.length() && s.charAt(pos) == '-') {
+                pos++;
+            }
+            while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= s.length()) {
+                throw new IllegalArgumentException("Unexpected end of type encoding "+s);
+            }
+            return s.charAt(pos);
+        }
+
+        private int readNumber() {
+            int start = pos;
+            while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("Expected a number at "+start+" in type encoding "+s);
+            }
+            return Integer.parseInt(s.substring(start, pos));
+        }
+
+        private String readQuoted() {
+            int end = s.indexOf('"', pos + 1);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated name in type encoding "+s);
+            }
+            String out = s.substring(pos + 1, end);
+            pos = end + 1;
+            return out;
+        }
+
+        TypeEncoding parseType() {
+            int start = pos;
+            int qualifiers = 0;
+            int q;
+            while (pos < s.length() && (q = QUALIFIERS.indexOf(s.charAt(pos))) != -1) {
+                qualifiers |= 1 << q;
+                pos++;
+            }
+            int typeStart = pos;
+
+            String name = null;
+            TypeEncoding elementType = null;
+            int count = 0;
+            List<TypeEncoding> fields = Collections.emptyList();
+            List<String> fieldNames = Collections.emptyList();
+            Kind kind;
+
+            char c = peek();
+            pos++;
+            switch (c) {
+                case 'c': kind = Kind.CHAR; break;
+                case 'C': kind = Kind.UNSIGNED_CHAR; break;
+                case 's': kind = Kind.SHORT; break;
+                case 'S': kind = Kind.UNSIGNED_SHORT; break;
+                case 'i': kind = Kind.INT; break;
+                case 'I': kind = Kind.UNSIGNED_INT; break;
+                case 'l': kind = Kind.LONG; break;
+                case 'L': kind = Kind.UNSIGNED_LONG; break;
+                case 'q': kind = Kind.LONG_LONG; break;
+                case 'Q': kind = Kind.UNSIGNED_LONG_LONG; break;
+                case 'f': kind = Kind.FLOAT; break;
+                case 'd': kind = Kind.DOUBLE; break;
+                case 'D': kind = Kind.LONG_DOUBLE; break;
+                case 'B': kind = Kind.BOOL; break;
+                case 'v': kind = Kind.VOID; break;
+                case '*': kind = Kind.C_STRING; break;
+                case '#': kind = Kind.CLASS; break;
+                case ':': kind = Kind.SELECTOR; break;
+                case '?': kind = Kind.UNKNOWN; break;
+                case '@':
+                    kind = Kind.OBJECT;
+                    if (pos < s.length() && s.charAt(pos) == '"') {
+                        name = readQuoted();
+                    } else if (pos < s.length() && s.charAt(pos) == '?') {
+                        // Block
+                        pos++;
+                    }
+                    break;
+                case '^':
+                    kind = Kind.POINTER;
+                    elementType = parseType();
+                    break;
+                case 'b':
+                    kind = Kind.BITFIELD;
+                    count = readNumber();
+                    break;
+                case '[':
+                    kind = Kind.ARRAY;
+                    count = readNumber();
+                    elementType = parseType();
+                    expect(']');
+                    break;
+                case '{':
+                case '(':
+                    kind = c == '{' ? Kind.STRUCT : Kind.UNION;
+                    char close = c == '{' ? '}' : ')';
+                    int nameStart = pos;
+                    while (peek() != '=' && peek() != close) {
+                        pos++;
+                    }
+                    name = s.substring(nameStart, pos);
+                    if (peek() == '=') {
+                        pos++;
+                        fields = new ArrayList<>();
+                        fieldNames = new ArrayList<>();
+                        boolean named = false;
+                        while (peek() != close) {
+                            String fieldName = null;
+                            if (peek() == '"') {
+                                fieldName = readQuoted();
+                                named = true;
+                            }
+                            fields.add(parseType());
+                            fieldNames.add(fieldName);
+                        }
+                        fields = Collections.unmodifiableList(fields);
+                        fieldNames = named ? Collections.unmodifiableList(fieldNames) : Collections.<String>emptyList();
+                    }
+                    pos++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type '"+c+"' at "+(pos-1)+" in type encoding "+s);
+            }
+
+            String encoding = s.substring(start, pos);
+            TypeEncoding existing = cache.get(encoding);
+            if (existing != null) {
+                return existing;
+            }
+            String type = qualifiers == 0 ? encoding : s.substring(typeStart, pos);
+            TypeEncoding out = new TypeEncoding(encoding, type, qualifiers, kind, name, elementType, count, fields, fieldNames);
+            existing = cache.putIfAbsent(encoding, out);
+            return existing != null ? existing : out;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '"+c+"' at "+pos+" in type encoding "+s);
+            }
+            pos++;
+        }
+    }
+}
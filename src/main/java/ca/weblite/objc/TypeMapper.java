@@ -15,6 +15,26 @@ import ca.weblite.objc.mappers.StructureMapping;
  * if the signature of the argument context is an NSString, and NSObjects
  * are mapped as Proxy wrapper objects.
  *
+ * <h2>Custom Mappings</h2>
+ *
+ * <p>Additional {@link TypeMapping}s can be registered with {@link #register(TypeMapping)}.
+ * For each value, the registered mappings are asked in registration order
+ * whether they {@link TypeMapping#accepts(TypeEncoding, Class) accept} the type
+ * encoding and Java class of the value, and the first one that does converts it.
+ * If none does, the built-in mappings are used.  The resolved mapping is
+ * remembered per type encoding and Java class.</p>
+ *
+ * <p>Mappings registered with {@link #INSTANCE} apply to all clients.  To
+ * use a separate set, create a new TypeMapper and pass it to
+ * {@link Client#Client(TypeMapper)}.</p>
+ *
+ * <pre>
+ * {@code
+ * TypeMapper mapper = new TypeMapper().register(new UUIDMapping());
+ * Client client = new Client(mapper);
+ * }
+ * </pre>
+ *
  * @author shannah
  * @version $Id: $Id
  * @since 1.1
@@ -34,33 +54,190 @@ public class TypeMapper implements TypeMapping {
         return INSTANCE;
     }
     
-    private TypeMapper() { }
+    /**
+     * The registered mappings, in registration order.
+     */
+    private volatile TypeMapping[] mappings = new TypeMapping[0];
+    
+    /**
+     * Resolved mappings, indexed by {@link TypeEncoding#getId()}.
+     */
+    private volatile Resolution[] resolutions = new Resolution[64];
+    
+    /**
+     * Creates a mapper that only uses the built-in mappings.
+     */
+    public TypeMapper() { }
+    
+    /**
+     * Registers a mapping.  Mappings are consulted in the order that they
+     * were registered, before the built-in mappings.
+     *
+     * @param mapping The mapping.  It must override {@link TypeMapping#accepts(TypeEncoding, Class)}.
+     * @return Self for chaining.
+     */
+    public synchronized TypeMapper register(TypeMapping mapping) {
+        if (mapping == null) {
+            throw new IllegalArgumentException("Mapping must not be null");
+        }
+        TypeMapping[] newMappings = new TypeMapping[mappings.length + 1];
+        System.arraycopy(mappings, 0, newMappings, 0, mappings.length);
+        newMappings[mappings.length] = mapping;
+        mappings = newMappings;
+        resolutions = new Resolution[resolutions.length];
+        return this;
+    }
+    
+    /**
+     * Checks whether a mapping has been registered with this mapper.
+     *
+     * @param mapping The mapping.
+     * @return True if it was registered with {@link #register(TypeMapping)}.
+     */
+    public boolean isRegistered(TypeMapping mapping) {
+        for (TypeMapping m : mappings) {
+            if (m == mapping) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Finds the mapping that converts values of the given Java class for a
+     * type encoding.  After the first lookup for an encoding and Java class,
+     * this is an array lookup followed by a scan of the few classes seen with
+     * that encoding, without locking.
+     *
+     * @param encoding The type encoding.
+     * @param javaType The class of the value being converted, or null if the value is null.
+     * @return The mapping.
+     * @throws IllegalArgumentException If no mapping handles the encoding.
+     */
+    public TypeMapping resolve(TypeEncoding encoding, Class<?> javaType) {
+        Resolution[] table = resolutions;
+        int id = encoding.getId();
+        if (id < table.length) {
+            Resolution resolution = table[id];
+            if (resolution != null) {
+                TypeMapping mapping = resolution.get(javaType);
+                if (mapping != null) {
+                    return mapping;
+                }
+            }
+        }
+        return resolveSlow(encoding, javaType);
+    }
+    
+    private synchronized TypeMapping resolveSlow(TypeEncoding encoding, Class<?> javaType) {
+        Resolution[] table = resolutions;
+        int id = encoding.getId();
+        Resolution resolution = id < table.length ? table[id] : null;
+        if (resolution != null) {
+            TypeMapping mapping = resolution.get(javaType);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+        TypeMapping[] registered = mappings;
+        TypeMapping mapping = null;
+        for (TypeMapping m : registered) {
+            if (m.accepts(encoding, javaType)) {
+                mapping = m;
+                break;
+            }
+        }
+        if (mapping == null) {
+            mapping = getMapping(encoding);
+        }
+        if (id >= table.length) {
+            Resolution[] grown = new Resolution[Math.max(table.length * 2, id + 1)];
+            System.arraycopy(table, 0, grown, 0, table.length);
+            table = grown;
+        }
+        if (registered.length == 0) {
+            // With no registered mappings, the result doesn't depend on the Java class
+            table[id] = new Resolution(mapping, new Class<?>[0], new TypeMapping[0]);
+        } else if (resolution == null) {
+            table[id] = new Resolution(null, new Class<?>[]{javaType}, new TypeMapping[]{mapping});
+        } else {
+            table[id] = resolution.with(javaType, mapping);
+        }
+        resolutions = table;
+        return mapping;
+    }
     
     /**
-     * Maps signatures to the corresponding TypeMapping object.  Signatures
-     * are <a href="https://developer.apple.com/library/mac/#documentation/Cocoa/Conceptual/ObjCRuntimeGuide/Articles/ocrtTypeEncodings.html">Objective-C type encodings</a>.
+     * The memoized results of {@link #resolve(TypeEncoding, Class)} for one
+     * type encoding.  It is immutable; a class is added by replacing it with
+     * a copy.
      */
-    private static TypeMapping getMapping(char typeChar) {
-        switch (typeChar) {
-            case 'c': case 'C':
-            case 'i': case 'I':
-            case 's': case 'S':
-            case 'f': case 'd':
-            case 'l': case 'L':
-            case 'q': case 'Q':
-            case 'b': case 'B':
-            case '[': case ':': case '?': case '#': case 'v':
+    private static final class Resolution {
+        
+        /**
+         * The mapping for every class, or null if it depends on the class.
+         */
+        final TypeMapping anyType;
+        final Class<?>[] javaTypes;
+        final TypeMapping[] mappings;
+        
+        Resolution(TypeMapping anyType, Class<?>[] javaTypes, TypeMapping[] mappings) {
+            this.anyType = anyType;
+            this.javaTypes = javaTypes;
+            this.mappings = mappings;
+        }
+        
+        TypeMapping get(Class<?> javaType) {
+            if (anyType != null) {
+                return anyType;
+            }
+            for (int i=0; i<javaTypes.length; i++) {
+                if (javaTypes[i] == javaType) {
+                    return mappings[i];
+                }
+            }
+            return null;
+        }
+        
+        Resolution with(Class<?> javaType, TypeMapping mapping) {
+            int n = javaTypes.length;
+            Class<?>[] types = new Class<?>[n + 1];
+            TypeMapping[] maps = new TypeMapping[n + 1];
+            System.arraycopy(javaTypes, 0, types, 0, n);
+            System.arraycopy(mappings, 0, maps, 0, n);
+            types[n] = javaType;
+            maps[n] = mapping;
+            return new Resolution(null, types, maps);
+        }
+    }
+    
+    /**
+     * Maps type encodings to the corresponding built-in TypeMapping object.  Signatures are <a href="https://developer.apple.com/library/mac/#documentation/Cocoa/Conceptual/ObjCRuntimeGuide/Articles/ocrtTypeEncodings.html">Objective-C type encodings</a>.
+     *
+     * @param encoding The type encoding.
+     * @return The mapping.
+     */
+    static TypeMapping getMapping(TypeEncoding encoding) {
+        switch (encoding.getKind()) {
+            case CHAR: case UNSIGNED_CHAR:
+            case INT: case UNSIGNED_INT:
+            case SHORT: case UNSIGNED_SHORT:
+            case FLOAT: case DOUBLE:
+            case LONG: case UNSIGNED_LONG:
+            case LONG_LONG: case UNSIGNED_LONG_LONG:
+            case BITFIELD: case BOOL:
+            case ARRAY: case SELECTOR: case UNKNOWN: case CLASS: case VOID:
                 return ScalarMapping.INSTANCE;
-            case '*':
+            case C_STRING:
                 return StringMapping.INSTANCE;
-            case '^':
+            case POINTER:
                 return PointerMapping.INSTANCE;
-            case '@':
+            case OBJECT:
                 return NSObjectMapping.INSTANCE;
-            case '{':
+            case STRUCT: case UNION:
                 return StructureMapping.INSTANCE;
             default:
-                throw new IllegalArgumentException("Unknown type: " + typeChar);
+                throw new IllegalArgumentException("Unknown type: " + encoding.getType());
         }
     }
     
@@ -73,21 +250,8 @@ public class TypeMapper implements TypeMapping {
      */
     @Override
     public Object cToJ(Object cVar, String signature, TypeMapping root) {
-        String prefixes = "rnNoORV";
-        int offset = 0;
-        while ( prefixes.indexOf(signature.charAt(offset)) != -1 ){
-            offset++;
-            if ( offset > signature.length()-1 ){
-                break;
-            }
-        }
-        if ( offset > 0 ){
-            signature = signature.substring(offset);
-        }
-        
-        char typeChar = signature.charAt(0);
-        TypeMapping mapping = getMapping(typeChar);
-        return mapping.cToJ(cVar, signature, root);
+        TypeEncoding encoding = TypeEncoding.of(signature);
+        return resolve(encoding, cVar == null ? null : cVar.getClass()).cToJ(cVar, encoding.getType(), root);
     }
 
     /**
@@ -106,21 +270,8 @@ public class TypeMapper implements TypeMapping {
      */
     @Override
     public Object jToC(Object jVar, String signature, TypeMapping root) {
-        String prefixes = "rnNoORV";
-        int offset = 0;
-        while ( prefixes.indexOf(signature.charAt(offset)) != -1 ){
-            offset++;
-            if ( offset > signature.length()-1 ){
-                break;
-            }
-        }
-        if ( offset > 0 ){
-            signature = signature.substring(offset);
-        }
-        
-        char typeChar = signature.charAt(0);
-        TypeMapping mapping = getMapping(typeChar);
-        return mapping.jToC(jVar, signature, root);
+        TypeEncoding encoding = TypeEncoding.of(signature);
+        return resolve(encoding, jVar == null ? null : jVar.getClass()).jToC(jVar, encoding.getType(), root);
     }
     
 }
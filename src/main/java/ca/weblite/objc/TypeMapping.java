@@ -30,4 +30,21 @@ public interface TypeMapping {
      * @return The converted C variable
      */
     public Object jToC(Object jVar, String signature, TypeMapping root);
+    
+    /**
+     * Checks whether this mapping converts values of the given Java class for
+     * the given type encoding.  Mappings that are registered with
+     * {@link TypeMapper#register(TypeMapping)} must override this; the
+     * built-in mappings are selected by type encoding alone.
+     *
+     * @param encoding The type encoding of the argument or return value.
+     * @param javaType The class of the value being converted (the Java value for
+     * {@link #jToC(Object, String, TypeMapping)}, the C value for
+     * {@link #cToJ(Object, String, TypeMapping)}), or null if the value is null.
+     * @return True if this mapping should convert the value.
+     * @since 1.3
+     */
+    default boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+        return false;
+    }
 }
@@ -0,0 +1,48 @@
+package ca.weblite.objc.foundation;
+
+import com.sun.jna.Structure;
+
+import java.util.List;
+
+/**
+ *  A structure mapping to the Core Graphics structure CGPoint (and NSPoint, which is the same
+ *  type on 64 bit platforms).  Messages that return a CGPoint return an instance of this class.
+ *
+ * @since 1.3
+ */
+public class CGPoint extends Structure {
+
+    public static class ByReference extends CGPoint implements Structure.ByReference{
+    }
+    public static class ByValue extends CGPoint implements Structure.ByValue {
+        public ByValue() {
+        }
+
+        public ByValue(double x, double y) {
+            super(x, y);
+        }
+    }
+
+    /**
+     * The x coordinate.
+     */
+    public double x;
+
+    /**
+     * The y coordinate.
+     */
+    public double y;
+
+    public CGPoint() {
+    }
+
+    public CGPoint(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    protected List<String> getFieldOrder() {
+        return List.of("x","y");
+    }
+}
@@ -0,0 +1,48 @@
+package ca.weblite.objc.foundation;
+
+import com.sun.jna.Structure;
+
+import java.util.List;
+
+/**
+ *  A structure mapping to the Core Graphics structure CGRect (and NSRect, which is the same
+ *  type on 64 bit platforms).  Messages that return a CGRect return an instance of this class.
+ *
+ * @since 1.3
+ */
+public class CGRect extends Structure {
+
+    public static class ByReference extends CGRect implements Structure.ByReference{
+    }
+    public static class ByValue extends CGRect implements Structure.ByValue {
+        public ByValue() {
+        }
+
+        public ByValue(double x, double y, double width, double height) {
+            super(x, y, width, height);
+        }
+    }
+
+    /**
+     * The origin.
+     */
+    public CGPoint origin;
+
+    /**
+     * The size.
+     */
+    public CGSize size;
+
+    public CGRect() {
+    }
+
+    public CGRect(double x, double y, double width, double height) {
+        this.origin = new CGPoint(x, y);
+        this.size = new CGSize(width, height);
+    }
+
+    @Override
+    protected List<String> getFieldOrder() {
+        return List.of("origin","size");
+    }
+}
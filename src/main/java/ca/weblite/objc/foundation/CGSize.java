@@ -0,0 +1,48 @@
+package ca.weblite.objc.foundation;
+
+import com.sun.jna.Structure;
+
+import java.util.List;
+
+/**
+ *  A structure mapping to the Core Graphics structure CGSize (and NSSize, which is the same
+ *  type on 64 bit platforms).  Messages that return a CGSize return an instance of this class.
+ *
+ * @since 1.3
+ */
+public class CGSize extends Structure {
+
+    public static class ByReference extends CGSize implements Structure.ByReference{
+    }
+    public static class ByValue extends CGSize implements Structure.ByValue {
+        public ByValue() {
+        }
+
+        public ByValue(double width, double height) {
+            super(width, height);
+        }
+    }
+
+    /**
+     * The width.
+     */
+    public double width;
+
+    /**
+     * The height.
+     */
+    public double height;
+
+    public CGSize() {
+    }
+
+    public CGSize(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    protected List<String> getFieldOrder() {
+        return List.of("width","height");
+    }
+}
@@ -0,0 +1,69 @@
+package ca.weblite.objc.mappers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.Runtime;
+import ca.weblite.objc.RuntimeUtils;
+
+/**
+ * Checks whether objects are instances of a class or its subclasses.  The
+ * answer is cached per class pointer, so after the first object of a class
+ * a check costs one object_getClass call and a map lookup.
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class KindOfClass {
+    
+    private final String className;
+    private final ConcurrentHashMap<Pointer,Boolean> classes = new ConcurrentHashMap<>();
+    
+    KindOfClass(String className) {
+        this.className = className;
+    }
+    
+    /**
+     * Checks an object.
+     *
+     * @param object The object.
+     * @return True if the object is an instance of the class or a subclass,
+     * false if it isn't or if it is null.
+     */
+    boolean test(Pointer object) {
+        if (object == null || Pointer.nativeValue(object) == 0L) {
+            return false;
+        }
+        Pointer cls = Runtime.INSTANCE.object_getClass(object);
+        Boolean isKind = classes.get(cls);
+        if (isKind == null) {
+            isKind = false;
+            Pointer target = RuntimeUtils.cls(className);
+            for (Pointer c = cls; c != null && Pointer.nativeValue(c) != 0L; c = Runtime.INSTANCE.class_getSuperclass(c)) {
+                if (c.equals(target)) {
+                    isKind = true;
+                    break;
+                }
+            }
+            classes.putIfAbsent(cls, isKind);
+        }
+        return isKind;
+    }
+    
+    /**
+     * Gets the object pointer of a C value as passed to
+     * {@link ca.weblite.objc.TypeMapping#cToJ(Object, String, ca.weblite.objc.TypeMapping)}.
+     *
+     * @param cVar A Pointer or a Long.
+     * @return The pointer, or null for other values.
+     */
+    static Pointer toPointer(Object cVar) {
+        if (cVar instanceof Pointer) {
+            return (Pointer)cVar;
+        } else if (cVar instanceof Long) {
+            return new Pointer((Long)cVar);
+        }
+        return null;
+    }
+}
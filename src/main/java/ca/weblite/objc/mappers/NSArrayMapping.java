@@ -0,0 +1,192 @@
+package ca.weblite.objc.mappers;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.TypeEncoding;
+import ca.weblite.objc.TypeMapper;
+import ca.weblite.objc.TypeMapping;
+import ca.weblite.objc.foundation.NSRange;
+
+/**
+ * Converts between NSArray and {@link List} in bulk.
+ *
+ * <p>An NSArray is read with one {@code getObjects:range:} message into a
+ * native buffer, rather than one {@code objectAtIndex:} message per element,
+ * and a List is turned into an NSArray with one {@code arrayWithObjects:count:}
+ * message.  Elements are converted with a {@link TypeMapper}, as if they were
+ * object arguments or return values; null elements become NSNull and back.</p>
+ *
+ * <p>List arguments are always converted to NSArrays.  Returned NSArrays are
+ * converted to Lists only if this mapping is registered with a
+ * {@link TypeMapper}, e.g.
+ * {@code TypeMapper.getInstance().register(NSArrayMapping.INSTANCE)}, or if
+ * {@link #toList(Pointer)} is called explicitly.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public class NSArrayMapping implements TypeMapping {
+    /**
+     * Singleton instance.
+     */
+    public static final NSArrayMapping INSTANCE = new NSArrayMapping();
+
+    private static final TypeEncoding OBJECT = TypeEncoding.of("@");
+
+    private static final KindOfClass NS_ARRAY = new KindOfClass("NSArray");
+
+    private static final KindOfClass NS_NULL = new KindOfClass("NSNull");
+
+    private NSArrayMapping() { }
+
+    /**
+     * Converts an NSArray to a List, converting the elements with the default
+     * {@link TypeMapper}.
+     *
+     * @param nsArray The NSArray.
+     * @return A new List, or null if nsArray is null.
+     */
+    public static List<Object> toList(Pointer nsArray) {
+        return toList(nsArray, TypeMapper.getInstance());
+    }
+
+    /**
+     * Converts an NSArray to a List.
+     *
+     * @param nsArray The NSArray.
+     * @param mapper The mapper that converts the elements.
+     * @return A new List, or null if nsArray is null.
+     */
+    public static List<Object> toList(Pointer nsArray, TypeMapper mapper) {
+        if (nsArray == null || Pointer.nativeValue(nsArray) == 0L) {
+            return null;
+        }
+        int count = (int)msg(nsArray, "count");
+        List<Object> out = new ArrayList<>(count);
+        if (count == 0) {
+            return out;
+        }
+        Memory objects = getObjects(nsArray, count);
+        for (int i=0; i<count; i++) {
+            out.add(toJava(objects.getPointer((long)i * Native.POINTER_SIZE), mapper));
+        }
+        return out;
+    }
+
+    /**
+     * Converts a List to an autoreleased NSArray, converting the elements with
+     * the default {@link TypeMapper}.
+     *
+     * @param list The list.
+     * @return The NSArray, or null if list is null.
+     */
+    public static Pointer toNSArray(List<?> list) {
+        return toNSArray(list, TypeMapper.getInstance());
+    }
+
+    /**
+     * Converts a List to an autoreleased NSArray.
+     *
+     * @param list The list.
+     * @param mapper The mapper that converts the elements.
+     * @return The NSArray, or null if list is null.
+     */
+    public static Pointer toNSArray(List<?> list, TypeMapper mapper) {
+        if (list == null) {
+            return null;
+        }
+        int count = list.size();
+        if (count == 0) {
+            return msgPointer("NSArray", "array");
+        }
+        Memory objects = new Memory((long)count * Native.POINTER_SIZE);
+        int i = 0;
+        for (Object element : list) {
+            objects.setPointer((long)i++ * Native.POINTER_SIZE, toObjC(element, mapper));
+        }
+        return msgPointer(cls("NSArray"), sel("arrayWithObjects:count:"), objects, (long)count);
+    }
+
+    /**
+     * Checks whether an object is an NSArray.  The answer is cached per class.
+     *
+     * @param object The object.
+     * @return True if it is an NSArray or a subclass.
+     */
+    public static boolean isNSArray(Pointer object) {
+        return NS_ARRAY.test(object);
+    }
+
+    /**
+     * Reads the elements of an NSArray into a native buffer with one message.
+     */
+    static Memory getObjects(Pointer nsArray, int count) {
+        Memory objects = new Memory((long)count * Native.POINTER_SIZE);
+        NSRange.ByValue range = new NSRange.ByValue();
+        range.location = 0;
+        range.length = count;
+        msg(nsArray, sel("getObjects:range:"), objects, range);
+        return objects;
+    }
+
+    /**
+     * Converts an element of a collection to Java.
+     */
+    static Object toJava(Pointer object, TypeMapper mapper) {
+        if (NS_NULL.test(object)) {
+            return null;
+        }
+        return mapper.resolve(OBJECT, Pointer.class).cToJ(object, "@", mapper);
+    }
+
+    /**
+     * Converts a Java value to an element of a collection.
+     */
+    static Pointer toObjC(Object element, TypeMapper mapper) {
+        if (element == null) {
+            return msgPointer("NSNull", "null");
+        }
+        Object out = mapper.resolve(OBJECT, element.getClass()).jToC(element, "@", mapper);
+        if (out instanceof Pointer) {
+            return (Pointer)out;
+        } else if (out instanceof Long) {
+            return new Pointer((Long)out);
+        }
+        throw new IllegalArgumentException("Cannot add "+element.getClass()+" to a collection");
+    }
+
+    /**
+     * Accepts List arguments and object return values.
+     */
+    @Override
+    public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+        return encoding.getKind() == TypeEncoding.Kind.OBJECT
+                && javaType != null
+                && (List.class.isAssignableFrom(javaType) || javaType == Long.class || Pointer.class.isAssignableFrom(javaType));
+    }
+
+    /**
+     * Maps NSArray to a List, and other objects like {@link NSObjectMapping}
+     * does (or the other registered object mappings).
+     */
+    @Override
+    public Object cToJ(Object cVar, String signature, TypeMapping root) {
+        Pointer object = KindOfClass.toPointer(cVar);
+        if (isNSArray(object)) {
+            return toList(object, ObjectConversions.mapperOf(root));
+        }
+        return ObjectConversions.cToJ(cVar, signature, root);
+    }
+
+    @Override
+    public Object jToC(Object jVar, String signature, TypeMapping root) {
+        return NSObjectMapping.INSTANCE.jToC(jVar, signature, root);
+    }
+}
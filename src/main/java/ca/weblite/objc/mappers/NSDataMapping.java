@@ -0,0 +1,176 @@
+package ca.weblite.objc.mappers;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.Recipient;
+import ca.weblite.objc.Runtime;
+import ca.weblite.objc.RuntimeUtils;
+import ca.weblite.objc.TypeEncoding;
+import ca.weblite.objc.TypeMapping;
+
+/**
+ * Bridges NSData and {@link ByteBuffer} without copying the bytes.
+ *
+ * <p>Direct ByteBuffers (including memory-mapped ones) that are passed as
+ * object arguments are always wrapped as NSData with
+ * {@code dataWithBytesNoCopy:length:freeWhenDone:}.  The NSData keeps the
+ * ByteBuffer reachable for as long as it lives, so the callee may retain it.
+ * Heap ByteBuffers are copied.</p>
+ *
+ * <p>Returned NSData objects are mapped to ByteBuffers only if this mapping is
+ * registered with a {@link ca.weblite.objc.TypeMapper}, e.g.
+ * {@code TypeMapper.getInstance().register(NSDataMapping.INSTANCE)}, or if
+ * {@link #toByteBuffer(Pointer)} is called explicitly.  The ByteBuffer is a
+ * read-only view of the NSData's bytes, and it holds a reference to the NSData
+ * until the ByteBuffer (and every buffer derived from it) is garbage collected.
+ * The view of an NSMutableData is only valid until the data is mutated.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public class NSDataMapping implements TypeMapping {
+    /**
+     * Singleton instance.
+     */
+    public static final NSDataMapping INSTANCE = new NSDataMapping();
+
+    /**
+     * The key under which an NSData holds on to the Java owner of its bytes.
+     */
+    private static final Pointer OWNER_KEY = new Memory(1);
+
+    /**
+     * {@code OBJC_ASSOCIATION_RETAIN_NONATOMIC}
+     */
+    private static final Pointer RETAIN_NONATOMIC = new Pointer(1);
+
+    private static final KindOfClass NS_DATA = new KindOfClass("NSData");
+
+    private NSDataMapping() { }
+
+    /**
+     * Gets a read-only view of the bytes of an NSData.  The NSData is retained
+     * until the view is garbage collected.
+     *
+     * @param nsData The NSData.
+     * @return The view, or null if nsData is null.
+     */
+    public static ByteBuffer toByteBuffer(Pointer nsData) {
+        if (nsData == null || Pointer.nativeValue(nsData) == 0L) {
+            return null;
+        }
+        long length = msg(nsData, "length");
+        if (length == 0) {
+            return ByteBuffer.allocateDirect(0).asReadOnlyBuffer();
+        }
+        Pointer bytes = msgPointer(nsData, "bytes");
+        msg(nsData, "retain");
+        ByteBuffer base = bytes.getByteBuffer(0, length);
+        // Views, slices and duplicates all refer to the base buffer, not to each other
+        ObjectConversions.releaseWhenUnreachable(base, nsData);
+        return base.asReadOnlyBuffer();
+    }
+
+    /**
+     * Wraps the remaining bytes of a ByteBuffer as an autoreleased NSData.
+     * The bytes of a direct buffer are not copied; the NSData refers to them
+     * and keeps the buffer reachable until it is deallocated.  Changes to the
+     * buffer are visible through the NSData.  The bytes of a heap buffer are
+     * copied.  The buffer's position is not changed.
+     *
+     * @param buffer The buffer.
+     * @return The NSData, or null if buffer is null.
+     */
+    public static Pointer toNSData(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        int length = buffer.remaining();
+        if (length == 0) {
+            return msgPointer("NSData", "data");
+        }
+        if (!buffer.isDirect()) {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            return msgPointer("NSData", "dataWithBytes:length:", bytes, (long)length);
+        }
+        Pointer bytes = Native.getDirectBufferPointer(buffer).share(buffer.position());
+        Pointer data = msgPointer(cls("NSData"), sel("dataWithBytesNoCopy:length:freeWhenDone:"), bytes, (long)length, false);
+        Pointer owner = new Pointer(RuntimeUtils.createProxy(new BufferOwner(buffer)));
+        Runtime.INSTANCE.objc_setAssociatedObject(data, OWNER_KEY, owner, RETAIN_NONATOMIC);
+        msg(owner, "release");
+        return data;
+    }
+
+    /**
+     * Checks whether an object is an NSData.  The answer is cached per class.
+     *
+     * @param object The object.
+     * @return True if it is an NSData or a subclass.
+     */
+    public static boolean isNSData(Pointer object) {
+        return NS_DATA.test(object);
+    }
+
+    /**
+     * Accepts ByteBuffer arguments and object return values.
+     */
+    @Override
+    public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+        return encoding.getKind() == TypeEncoding.Kind.OBJECT
+                && javaType != null
+                && (ByteBuffer.class.isAssignableFrom(javaType) || javaType == Long.class || Pointer.class.isAssignableFrom(javaType));
+    }
+
+    /**
+     * Maps NSData to a read-only ByteBuffer view, and other objects like
+     * {@link NSObjectMapping} does (or the other registered object mappings).
+     */
+    @Override
+    public Object cToJ(Object cVar, String signature, TypeMapping root) {
+        Pointer object = KindOfClass.toPointer(cVar);
+        if (isNSData(object)) {
+            return toByteBuffer(object);
+        }
+        return ObjectConversions.cToJ(cVar, signature, root);
+    }
+
+    @Override
+    public Object jToC(Object jVar, String signature, TypeMapping root) {
+        return NSObjectMapping.INSTANCE.jToC(jVar, signature, root);
+    }
+
+    /**
+     * The Java peer that an NSData holds on to so that the direct ByteBuffer
+     * it wraps stays reachable.  It doesn't respond to any messages.
+     */
+    private static final class BufferOwner implements Recipient {
+        @SuppressWarnings("unused")
+        private final ByteBuffer buffer;
+
+        BufferOwner(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long methodSignatureForSelector(long selector) {
+            return 0L;
+        }
+
+        @Override
+        public void forwardInvocation(long invocation) {
+
+        }
+
+        @Override
+        public boolean respondsToSelector(long selector) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package ca.weblite.objc.mappers;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.TypeEncoding;
+import ca.weblite.objc.TypeMapper;
+import ca.weblite.objc.TypeMapping;
+
+/**
+ * Converts between NSDictionary and {@link Map} in bulk.
+ *
+ * <p>An NSDictionary is read with one {@code getObjects:andKeys:count:}
+ * message into native buffers, rather than {@code allKeys} and one
+ * {@code objectForKey:} message per key, and a Map is turned into an
+ * NSDictionary with one {@code dictionaryWithObjects:forKeys:count:} message.
+ * Keys and values are converted with a {@link TypeMapper}, like the elements of
+ * an NSArray in {@link NSArrayMapping}.</p>
+ *
+ * <p>Dictionaries with at least {@link #getLazyThreshold()} entries are
+ * converted lazily: the keys are converted up front, but each value is only
+ * converted when it is first read.  A lazy map is read-only, and it keeps a
+ * copy of the NSDictionary until the map is garbage collected, so later
+ * changes to an NSMutableDictionary don't affect it.  Copying an immutable
+ * NSDictionary only retains it.</p>
+ *
+ * <p>Map arguments are always converted to NSDictionaries.  Returned
+ * NSDictionaries are converted to Maps only if this mapping is registered with
+ * a {@link TypeMapper}, e.g.
+ * {@code TypeMapper.getInstance().register(NSDictionaryMapping.INSTANCE)}, or
+ * if {@link #toMap(Pointer)} is called explicitly.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public class NSDictionaryMapping implements TypeMapping {
+    /**
+     * Singleton instance.
+     */
+    public static final NSDictionaryMapping INSTANCE = new NSDictionaryMapping();
+
+    private static final KindOfClass NS_DICTIONARY = new KindOfClass("NSDictionary");
+
+    private static volatile int lazyThreshold = Integer.getInteger("ca.weblite.objc.lazyDictionaryThreshold", Integer.MAX_VALUE);
+
+    private NSDictionaryMapping() { }
+
+    /**
+     * Gets the number of entries from which dictionaries are converted lazily.
+     *
+     * @return The threshold.  By default it is {@link Integer#MAX_VALUE}, i.e.
+     * dictionaries are converted eagerly, unless the system property
+     * {@code ca.weblite.objc.lazyDictionaryThreshold} is set.
+     */
+    public static int getLazyThreshold() {
+        return lazyThreshold;
+    }
+
+    /**
+     * Sets the number of entries from which dictionaries are converted lazily.
+     *
+     * @param threshold The threshold.
+     */
+    public static void setLazyThreshold(int threshold) {
+        lazyThreshold = threshold;
+    }
+
+    /**
+     * Converts an NSDictionary to a Map, converting the keys and values with
+     * the default {@link TypeMapper}.
+     *
+     * @param nsDictionary The NSDictionary.
+     * @return A Map that iterates in the dictionary's order, or null if nsDictionary is null.
+     */
+    public static Map<Object,Object> toMap(Pointer nsDictionary) {
+        return toMap(nsDictionary, TypeMapper.getInstance());
+    }
+
+    /**
+     * Converts an NSDictionary to a Map, lazily if it has at least
+     * {@link #getLazyThreshold()} entries.
+     *
+     * @param nsDictionary The NSDictionary.
+     * @param mapper The mapper that converts the keys and values.
+     * @return A Map that iterates in the dictionary's order, or null if nsDictionary is null.
+     */
+    public static Map<Object,Object> toMap(Pointer nsDictionary, TypeMapper mapper) {
+        if (nsDictionary == null || Pointer.nativeValue(nsDictionary) == 0L) {
+            return null;
+        }
+        int count = (int)msg(nsDictionary, "count");
+        return toMap(nsDictionary, count, mapper, count >= lazyThreshold);
+    }
+
+    /**
+     * Converts an NSDictionary to a Map.
+     *
+     * @param nsDictionary The NSDictionary.
+     * @param mapper The mapper that converts the keys and values.
+     * @param lazy True to convert each value when it is first read.
+     * @return A Map that iterates in the dictionary's order, or null if nsDictionary is null.
+     */
+    public static Map<Object,Object> toMap(Pointer nsDictionary, TypeMapper mapper, boolean lazy) {
+        if (nsDictionary == null || Pointer.nativeValue(nsDictionary) == 0L) {
+            return null;
+        }
+        return toMap(nsDictionary, (int)msg(nsDictionary, "count"), mapper, lazy);
+    }
+
+    private static Map<Object,Object> toMap(Pointer nsDictionary, int count, TypeMapper mapper, boolean lazy) {
+        if (count == 0) {
+            return new LinkedHashMap<>();
+        }
+        if (lazy) {
+            // The values are read later, so they must come from a dictionary that can't change
+            nsDictionary = msgPointer(nsDictionary, "copy");
+            count = (int)msg(nsDictionary, "count");
+            if (count == 0) {
+                msg(nsDictionary, "release");
+                return new LinkedHashMap<>();
+            }
+        }
+        long size = (long)count * Native.POINTER_SIZE;
+        Memory objects = new Memory(size);
+        Memory keys = new Memory(size);
+        msg(nsDictionary, sel("getObjects:andKeys:count:"), objects, keys, (long)count);
+        Object[] javaKeys = new Object[count];
+        for (int i=0; i<count; i++) {
+            javaKeys[i] = NSArrayMapping.toJava(keys.getPointer((long)i * Native.POINTER_SIZE), mapper);
+        }
+        if (lazy) {
+            return new LazyMap(nsDictionary, javaKeys, objects, mapper);
+        }
+        Map<Object,Object> out = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i=0; i<count; i++) {
+            out.put(javaKeys[i], NSArrayMapping.toJava(objects.getPointer((long)i * Native.POINTER_SIZE), mapper));
+        }
+        return out;
+    }
+
+    /**
+     * Converts a Map to an autoreleased NSDictionary, converting the keys and
+     * values with the default {@link TypeMapper}.
+     *
+     * @param map The map.
+     * @return The NSDictionary, or null if map is null.
+     */
+    public static Pointer toNSDictionary(Map<?,?> map) {
+        return toNSDictionary(map, TypeMapper.getInstance());
+    }
+
+    /**
+     * Converts a Map to an autoreleased NSDictionary.  Null keys and values
+     * become NSNull.
+     *
+     * @param map The map.
+     * @param mapper The mapper that converts the keys and values.
+     * @return The NSDictionary, or null if map is null.
+     */
+    public static Pointer toNSDictionary(Map<?,?> map, TypeMapper mapper) {
+        if (map == null) {
+            return null;
+        }
+        int count = map.size();
+        if (count == 0) {
+            return msgPointer("NSDictionary", "dictionary");
+        }
+        long size = (long)count * Native.POINTER_SIZE;
+        Memory objects = new Memory(size);
+        Memory keys = new Memory(size);
+        int i = 0;
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+            keys.setPointer((long)i * Native.POINTER_SIZE, NSArrayMapping.toObjC(entry.getKey(), mapper));
+            objects.setPointer((long)i * Native.POINTER_SIZE, NSArrayMapping.toObjC(entry.getValue(), mapper));
+            i++;
+        }
+        return msgPointer(cls("NSDictionary"), sel("dictionaryWithObjects:forKeys:count:"), objects, keys, (long)count);
+    }
+
+    /**
+     * Checks whether an object is an NSDictionary.  The answer is cached per class.
+     *
+     * @param object The object.
+     * @return True if it is an NSDictionary or a subclass.
+     */
+    public static boolean isNSDictionary(Pointer object) {
+        return NS_DICTIONARY.test(object);
+    }
+
+    /**
+     * Accepts Map arguments and object return values.
+     */
+    @Override
+    public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+        return encoding.getKind() == TypeEncoding.Kind.OBJECT
+                && javaType != null
+                && (Map.class.isAssignableFrom(javaType) || javaType == Long.class || Pointer.class.isAssignableFrom(javaType));
+    }
+
+    /**
+     * Maps NSDictionary to a Map, and other objects like
+     * {@link NSObjectMapping} does (or the other registered object mappings).
+     */
+    @Override
+    public Object cToJ(Object cVar, String signature, TypeMapping root) {
+        Pointer object = KindOfClass.toPointer(cVar);
+        if (isNSDictionary(object)) {
+            return toMap(object, ObjectConversions.mapperOf(root));
+        }
+        return ObjectConversions.cToJ(cVar, signature, root);
+    }
+
+    @Override
+    public Object jToC(Object jVar, String signature, TypeMapping root) {
+        return NSObjectMapping.INSTANCE.jToC(jVar, signature, root);
+    }
+
+    /**
+     * A read-only map over the entries of an NSDictionary, whose values are
+     * converted on first access.
+     */
+    private static final class LazyMap extends AbstractMap<Object,Object> {
+        private final Object[] keys;
+        private final Memory objects;
+        private final Object[] values;
+        private final boolean[] converted;
+        private final TypeMapper mapper;
+        private final HashMap<Object,Integer> indexes;
+
+        /**
+         * Creates a map over an immutable copy of a dictionary, which the
+         * map takes ownership of.
+         */
+        LazyMap(Pointer nsDictionary, Object[] keys, Memory objects, TypeMapper mapper) {
+            this.keys = keys;
+            this.objects = objects;
+            this.values = new Object[keys.length];
+            this.converted = new boolean[keys.length];
+            this.mapper = mapper;
+            indexes = new HashMap<>(keys.length * 4 / 3 + 1);
+            for (int i=0; i<keys.length; i++) {
+                indexes.put(keys[i], i);
+            }
+            // The values in the buffer are only valid while the dictionary lives
+            ObjectConversions.releaseWhenUnreachable(this, nsDictionary);
+        }
+
+        private synchronized Object valueAt(int index) {
+            if (!converted[index]) {
+                values[index] = NSArrayMapping.toJava(objects.getPointer((long)index * Native.POINTER_SIZE), mapper);
+                converted[index] = true;
+            }
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexes.containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer index = indexes.get(key);
+            return index == null ? null : valueAt(index);
+        }
+
+        @Override
+        public Set<Map.Entry<Object,Object>> entrySet() {
+            return new AbstractSet<Map.Entry<Object,Object>>() {
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Object,Object>> iterator() {
+                    return new Iterator<Map.Entry<Object,Object>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Object,Object> next() {
+                            if (next >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++;
+                            return new AbstractMap.SimpleImmutableEntry<>(keys[index], valueAt(index));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package ca.weblite.objc.mappers;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.Runtime;
+import ca.weblite.objc.TypeEncoding;
+import ca.weblite.objc.TypeMapping;
+
+/**
+ * Converts between NSNumber and Java {@link Number}s and {@link Boolean}s.
+ *
+ * <p>Numbers and Booleans that are passed as object arguments are always
+ * boxed as NSNumbers.  Like {@link Integer#valueOf(int)}, the NSNumbers for
+ * Integers and Longs between -128 and 127 and for Booleans are created once,
+ * retained for the life of the program and shared, so passing them costs no
+ * messages.  Bytes, Shorts and Integers are boxed with {@code numberWithInt:},
+ * other integral numbers with {@code numberWithLongLong:}, and everything
+ * else, including Floats, with {@code numberWithDouble:}.</p>
+ *
+ * <p>Returned NSNumbers are unboxed only if this mapping is registered with a
+ * {@link ca.weblite.objc.TypeMapper}, e.g.
+ * {@code TypeMapper.getInstance().register(NSNumberMapping.INSTANCE)}, or if
+ * {@link #toNumber(Pointer)} is called explicitly.  Whether the class of an
+ * object is NSNumber, and whether it is the boolean class, is cached per
+ * class; other numbers are asked for their {@code objCType} and then read
+ * with the matching accessor, so unboxing costs two messages.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+public class NSNumberMapping implements TypeMapping {
+    /**
+     * Singleton instance.
+     */
+    public static final NSNumberMapping INSTANCE = new NSNumberMapping();
+
+    private static final int CACHE_LOW = -128;
+
+    private static final int CACHE_HIGH = 127;
+
+    private static final AtomicReferenceArray<Pointer> ints = new AtomicReferenceArray<>(CACHE_HIGH - CACHE_LOW + 1);
+
+    private static final AtomicReferenceArray<Pointer> longs = new AtomicReferenceArray<>(CACHE_HIGH - CACHE_LOW + 1);
+
+    private static final AtomicReferenceArray<Pointer> booleans = new AtomicReferenceArray<>(2);
+
+    /**
+     * How the instances of the classes seen so far are unboxed, keyed by
+     * class pointer.
+     */
+    private static final ConcurrentHashMap<Pointer,Kind> kinds = new ConcurrentHashMap<>();
+
+    private NSNumberMapping() { }
+
+    /**
+     * How instances of a class are unboxed.
+     */
+    private enum Kind {
+        /**
+         * Not an NSNumber.
+         */
+        OTHER,
+
+        /**
+         * The class of {@code kCFBooleanTrue} and {@code kCFBooleanFalse}.
+         * Unboxed with {@code boolValue}.
+         */
+        BOOLEAN,
+
+        /**
+         * Any other NSNumber.  Unboxed according to its {@code objCType}.
+         */
+        NUMBER
+    }
+
+    /**
+     * Boxes a Number or Boolean as an NSNumber.  The result must not be
+     * released by the caller.  It is valid at least until the current
+     * autorelease pool is drained.
+     *
+     * @param value The Number or Boolean.
+     * @return The NSNumber, or null if value is null.
+     * @throws IllegalArgumentException If value is neither a Number nor a Boolean.
+     */
+    public static Pointer toNSNumber(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            int i = ((Number)value).intValue();
+            if (i >= CACHE_LOW && i <= CACHE_HIGH) {
+                return cached(ints, i - CACHE_LOW, "initWithInt:", i);
+            }
+            return msgPointer("NSNumber", "numberWithInt:", i);
+        }
+        if (value instanceof Long || value instanceof AtomicLong || value instanceof AtomicInteger) {
+            long l = ((Number)value).longValue();
+            if (l >= CACHE_LOW && l <= CACHE_HIGH) {
+                return cached(longs, (int)l - CACHE_LOW, "initWithLongLong:", l);
+            }
+            return msgPointer("NSNumber", "numberWithLongLong:", l);
+        }
+        if (value instanceof Number) {
+            return msgPointer("NSNumber", "numberWithDouble:", ((Number)value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            boolean b = (Boolean)value;
+            return cached(booleans, b ? 1 : 0, "initWithBool:", b);
+        }
+        throw new IllegalArgumentException("Cannot box "+value.getClass()+" as an NSNumber");
+    }
+
+    /**
+     * Gets a shared NSNumber, creating it the first time.
+     */
+    private static Pointer cached(AtomicReferenceArray<Pointer> cache, int index, String initializer, Object value) {
+        Pointer out = cache.get(index);
+        if (out == null) {
+            Pointer created = msgPointer(msgPointer("NSNumber", "alloc"), initializer, value);
+            if (cache.compareAndSet(index, null, created)) {
+                out = created;
+            } else {
+                msg(created, "release");
+                out = cache.get(index);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Unboxes an NSNumber.  Numbers whose {@code objCType} is {@code c},
+     * {@code C}, {@code s}, {@code S} or {@code i} become Integers, other
+     * integral numbers become Longs (unsigned 64-bit values wrap), {@code f}
+     * becomes a Float, and the rest, including NSDecimalNumbers, become
+     * Doubles.  The boolean NSNumbers become Booleans.
+     *
+     * @param nsNumber The NSNumber.
+     * @return The Java value, or null if nsNumber is null.
+     * @throws IllegalArgumentException If nsNumber is not an NSNumber.
+     */
+    public static Object toNumber(Pointer nsNumber) {
+        if (nsNumber == null || Pointer.nativeValue(nsNumber) == 0L) {
+            return null;
+        }
+        switch (getKind(nsNumber)) {
+            case BOOLEAN:
+                return (msg(nsNumber, "boolValue") & 0xffL) != 0L;
+            case NUMBER:
+                break;
+            default:
+                throw new IllegalArgumentException("Not an NSNumber: "+nsNumber);
+        }
+        switch ((char)msgPointer(nsNumber, "objCType").getByte(0)) {
+            case 'c': case 'C': case 's': case 'S': case 'i':
+                return msgInt(nsNumber, "intValue");
+            case 'I': case 'l': case 'L': case 'q': case 'Q':
+                return msg(nsNumber, "longLongValue");
+            case 'f':
+                return (float)msgDouble(nsNumber, "doubleValue");
+            default:
+                return msgDouble(nsNumber, "doubleValue");
+        }
+    }
+
+    /**
+     * Checks whether an object is an NSNumber.  The answer is cached per class.
+     *
+     * @param object The object.
+     * @return True if it is an NSNumber or a subclass.
+     */
+    public static boolean isNSNumber(Pointer object) {
+        return getKind(object) != Kind.OTHER;
+    }
+
+    private static Kind getKind(Pointer object) {
+        if (object == null || Pointer.nativeValue(object) == 0L) {
+            return Kind.OTHER;
+        }
+        Pointer cls = Runtime.INSTANCE.object_getClass(object);
+        Kind kind = kinds.get(cls);
+        if (kind == null) {
+            kind = Kind.OTHER;
+            Pointer nsNumber = cls("NSNumber");
+            for (Pointer c = cls; c != null && Pointer.nativeValue(c) != 0L; c = Runtime.INSTANCE.class_getSuperclass(c)) {
+                if (c.equals(nsNumber)) {
+                    kind = Kind.NUMBER;
+                    break;
+                }
+            }
+            if (kind == Kind.NUMBER && cls.equals(Runtime.INSTANCE.object_getClass(toNSNumber(Boolean.TRUE)))) {
+                kind = Kind.BOOLEAN;
+            }
+            kinds.putIfAbsent(cls, kind);
+        }
+        return kind;
+    }
+
+    /**
+     * Accepts Number and Boolean arguments and object return values.
+     */
+    @Override
+    public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+        return encoding.getKind() == TypeEncoding.Kind.OBJECT
+                && javaType != null
+                && (Number.class.isAssignableFrom(javaType) || javaType == Boolean.class || Pointer.class.isAssignableFrom(javaType));
+    }
+
+    /**
+     * Maps NSNumber to a Number or Boolean, and other objects like
+     * {@link NSObjectMapping} does (or the other registered object mappings).
+     */
+    @Override
+    public Object cToJ(Object cVar, String signature, TypeMapping root) {
+        Pointer object = KindOfClass.toPointer(cVar);
+        if (isNSNumber(object)) {
+            return toNumber(object);
+        }
+        return ObjectConversions.cToJ(cVar, signature, root);
+    }
+
+    @Override
+    public Object jToC(Object jVar, String signature, TypeMapping root) {
+        return NSObjectMapping.INSTANCE.jToC(jVar, signature, root);
+    }
+}
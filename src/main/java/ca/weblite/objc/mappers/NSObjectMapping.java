@@ -1,7 +1,13 @@
 package ca.weblite.objc.mappers;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.sun.jna.Pointer;
 
+import ca.weblite.objc.NSStringCache;
 import ca.weblite.objc.Peerable;
 import ca.weblite.objc.Proxy;
 import ca.weblite.objc.Runtime;
@@ -39,13 +45,13 @@ public class NSObjectMapping implements TypeMapping {
             //System.out.println("The java value will be null");
             return null;
         }
-        String clsName = Runtime.INSTANCE.object_getClassName(cObj);
-        boolean isString = "NSString".equals(clsName) || "NSTaggedPointerString".equals(clsName) || "NSMutableString".equals(clsName) || "__NSCFString".equals(clsName);
-        
-        
-        ////System.out.println("Checking if object is a string "+isString+", "+clsName);
-        if ( isString  ){
-            return RuntimeUtils.str(cObj);
+        switch (getKind(Runtime.INSTANCE.object_getClass(cObj))) {
+            case STRING:
+                return RuntimeUtils.str(cObj);
+            case OBJECT:
+                return Proxy.load(cObj);
+            default:
+                break;
         }
         Object peer = RuntimeUtils.getJavaPeer(PointerTool.getPeer(cObj));
         if ( peer == null ){
@@ -54,6 +60,71 @@ public class NSObjectMapping implements TypeMapping {
             return peer;
         }
     }
+    
+    /**
+     * How instances of a class are mapped to Java.
+     */
+    private enum Kind {
+        /**
+         * NSString or a subclass.  Mapped to a Java string.
+         */
+        STRING,
+        
+        /**
+         * WLJavaProxy or a subclass.  Mapped to the Java peer.
+         */
+        JAVA_PEER,
+        
+        /**
+         * NSProxy subclasses, which may forward javaPeer to a Java peer.
+         * Each instance is asked for its Java peer.
+         */
+        FORWARDING,
+        
+        /**
+         * Any other class.  Mapped to a {@link Proxy}.
+         */
+        OBJECT
+    }
+    
+    /**
+     * Kinds of the classes seen so far, keyed by class pointer.
+     */
+    private static final ConcurrentHashMap<Pointer,Kind> kinds = new ConcurrentHashMap<>();
+    
+    /**
+     * Gets the kind of a class, walking its superclasses the first time the
+     * class is seen.
+     *
+     * @param cls The class of the object being mapped.
+     * @return The kind of the class.
+     */
+    private static Kind getKind(Pointer cls) {
+        if (cls == null) {
+            return Kind.FORWARDING;
+        }
+        Kind kind = kinds.get(cls);
+        if (kind == null) {
+            kind = Kind.OBJECT;
+            Pointer nsString = RuntimeUtils.cls("NSString");
+            Pointer javaProxy = RuntimeUtils.cls("WLJavaProxy");
+            Pointer nsProxy = RuntimeUtils.cls("NSProxy");
+            for (Pointer c = cls; c != null && Pointer.nativeValue(c) != 0L; c = Runtime.INSTANCE.class_getSuperclass(c)) {
+                if (c.equals(nsString)) {
+                    kind = Kind.STRING;
+                    break;
+                } else if (c.equals(javaProxy)) {
+                    kind = Kind.JAVA_PEER;
+                    break;
+                } else if (c.equals(nsProxy)) {
+                    kind = Kind.FORWARDING;
+                    break;
+                }
+            }
+            kinds.putIfAbsent(cls, kind);
+        }
+        return kind;
+    }
 
     @Override
     public Object jToC(Object jVar, String signature, TypeMapping root) {
@@ -61,7 +132,19 @@ public class NSObjectMapping implements TypeMapping {
             return Pointer.NULL;
         }
         if (jVar instanceof String) {
-            return RuntimeUtils.str((String)jVar);
+            return NSStringCache.get((String)jVar);
+        }
+        if (jVar instanceof Number || jVar instanceof Boolean) {
+            return NSNumberMapping.toNSNumber(jVar);
+        }
+        if (jVar instanceof ByteBuffer) {
+            return NSDataMapping.toNSData((ByteBuffer)jVar);
+        }
+        if (jVar instanceof List) {
+            return NSArrayMapping.toNSArray((List<?>)jVar, ObjectConversions.mapperOf(root));
+        }
+        if (jVar instanceof Map) {
+            return NSDictionaryMapping.toNSDictionary((Map<?,?>)jVar, ObjectConversions.mapperOf(root));
         }
         if (jVar instanceof Peerable) {
             return ((Peerable)jVar).getPeer();
@@ -0,0 +1,76 @@
+package ca.weblite.objc.mappers;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.Proxy;
+import ca.weblite.objc.TypeMapper;
+import ca.weblite.objc.TypeMapping;
+
+/**
+ * Converts returned objects with whichever of the opt-in object mappings
+ * ({@link NSNumberMapping}, {@link NSDataMapping},
+ * {@link NSArrayMapping}, {@link NSDictionaryMapping}) are registered with the
+ * root {@link TypeMapper}.  Since an object return value's type encoding
+ * doesn't name its class, the first of these mappings that is registered
+ * receives every object return value, and hands the ones it doesn't convert
+ * to here, so that registering several of them works as expected.
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ObjectConversions {
+    
+    private ObjectConversions() {
+        
+    }
+    
+    /**
+     * Converts a returned object.
+     *
+     * @param cVar The object, as a Pointer or a Long.
+     * @param signature The type encoding.
+     * @param root The root mapping.
+     * @return The Java value.
+     */
+    static Object cToJ(Object cVar, String signature, TypeMapping root) {
+        Pointer object = KindOfClass.toPointer(cVar);
+        if (object != null && root instanceof TypeMapper) {
+            TypeMapper mapper = (TypeMapper)root;
+            if (mapper.isRegistered(NSNumberMapping.INSTANCE) && NSNumberMapping.isNSNumber(object)) {
+                return NSNumberMapping.toNumber(object);
+            }
+            if (mapper.isRegistered(NSDataMapping.INSTANCE) && NSDataMapping.isNSData(object)) {
+                return NSDataMapping.toByteBuffer(object);
+            }
+            if (mapper.isRegistered(NSArrayMapping.INSTANCE) && NSArrayMapping.isNSArray(object)) {
+                return NSArrayMapping.toList(object, mapper);
+            }
+            if (mapper.isRegistered(NSDictionaryMapping.INSTANCE) && NSDictionaryMapping.isNSDictionary(object)) {
+                return NSDictionaryMapping.toMap(object, mapper);
+            }
+        }
+        return NSObjectMapping.INSTANCE.cToJ(cVar, signature, root);
+    }
+    
+    /**
+     * Gets the TypeMapper to convert the elements of collections with.
+     *
+     * @param root The root mapping.
+     * @return The root mapping if it is a TypeMapper, otherwise the default one.
+     */
+    static TypeMapper mapperOf(TypeMapping root) {
+        return root instanceof TypeMapper ? (TypeMapper)root : TypeMapper.getInstance();
+    }
+    
+    /**
+     * Releases an object once a Java object that depends on it has been
+     * garbage collected, in a batch with the objects of collected proxies.
+     * The caller must already have retained the object.
+     *
+     * @param owner The Java object.
+     * @param object The Objective-C object.
+     */
+    static void releaseWhenUnreachable(Object owner, Pointer object) {
+        Proxy.releaseWhenUnreachable(owner, object);
+    }
+}
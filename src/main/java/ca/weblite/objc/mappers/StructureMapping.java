@@ -1,10 +1,29 @@
 package ca.weblite.objc.mappers;
 
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+import ca.weblite.objc.TypeEncoding;
 import ca.weblite.objc.TypeMapping;
+import ca.weblite.objc.foundation.CGPoint;
+import ca.weblite.objc.foundation.CGRect;
+import ca.weblite.objc.foundation.CGSize;
+import ca.weblite.objc.foundation.NSRange;
 
 /**
  * <p>StructureMapping class.</p>
  *
+ * <p>Structures returned from messages arrive as a pointer to memory that is
+ * reused for the next message, so they are copied out.  If a
+ * {@link Structure} class is registered for the structure's name (e.g.
+ * {@code CGRect} or {@code _NSRange}), the value is returned as an instance of
+ * that class.  Otherwise it is returned as a {@link Memory} holding the
+ * structure's bytes.</p>
+ *
  * @author shannah
  * @version $Id: $Id
  * @since 1.1
@@ -14,12 +33,102 @@ public class StructureMapping implements TypeMapping {
      * Singleton instance.
      */
     public static final StructureMapping INSTANCE = new StructureMapping();
+    
+    private final ConcurrentHashMap<String,Class<? extends Structure>> structureClasses = new ConcurrentHashMap<>();
+    
+    /**
+     * The no-arg constructors of the registered classes, so that they aren't
+     * looked up for every returned structure.
+     */
+    private static final ClassValue<Constructor<?>> constructors = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                return type.getConstructor();
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalArgumentException(type+" has no public no-arg constructor", ex);
+            }
+        }
+    };
+    
+    /**
+     * Scratch space for copying structures, per thread.
+     */
+    private static final ThreadLocal<byte[][]> scratch = ThreadLocal.withInitial(() -> new byte[][]{new byte[64]});
+    
+    /**
+     * Scratch arrays larger than this are not kept.
+     */
+    private static final int MAX_SCRATCH = 4096;
 
-    private StructureMapping() { }
+    private StructureMapping() {
+        register("_NSRange", NSRange.ByValue.class);
+        register("NSRange", NSRange.ByValue.class);
+        register("CGPoint", CGPoint.ByValue.class);
+        register("CGSize", CGSize.ByValue.class);
+        register("CGRect", CGRect.ByValue.class);
+    }
+    
+    /**
+     * Registers the class that returned structures with the given name are
+     * converted to.
+     *
+     * @param structName The name of the structure in its type encoding, e.g.
+     * "CGRect" for {@code {CGRect={CGPoint=dd}{CGSize=dd}}}.
+     * @param cls The structure class.  It must have the same layout as the
+     * native structure and a public no-arg constructor.
+     */
+    public void register(String structName, Class<? extends Structure> cls) {
+        structureClasses.put(structName, cls);
+    }
+    
+    /**
+     * Gets the class registered for a structure name.
+     *
+     * @param structName The name of the structure.
+     * @return The class, or null if none is registered.
+     */
+    public Class<? extends Structure> getStructureClass(String structName) {
+        return structName == null ? null : structureClasses.get(structName);
+    }
     
     @Override
     public Object cToJ(Object cVar, String signature, TypeMapping root) {
-        return cVar;
+        if (!(cVar instanceof Pointer)) {
+            return cVar;
+        }
+        Pointer src = (Pointer)cVar;
+        TypeEncoding encoding = TypeEncoding.of(signature);
+        Class<? extends Structure> cls = getStructureClass(encoding.getName());
+        if (cls != null) {
+            Structure out = newInstance(cls);
+            int size = (int)Math.min(out.size(), encoding.getSize());
+            copy(src, out.getPointer(), size);
+            out.read();
+            return out;
+        }
+        return copy(src, encoding.getSize());
+    }
+    
+    private static Structure newInstance(Class<? extends Structure> cls) {
+        try {
+            return (Structure)constructors.get(cls).newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("Cannot create "+cls, ex);
+        }
+    }
+    
+    /**
+     * Copies native memory through a byte array that is reused per thread.
+     */
+    private static void copy(Pointer src, Pointer dest, int size) {
+        byte[][] slot = scratch.get();
+        byte[] bytes = slot[0].length >= size ? slot[0] : new byte[size];
+        src.read(0, bytes, 0, size);
+        dest.write(0, bytes, 0, size);
+        if (bytes.length <= MAX_SCRATCH) {
+            slot[0] = bytes;
+        }
     }
 
     @Override
@@ -27,4 +136,17 @@ public class StructureMapping implements TypeMapping {
         return jVar;
     }
     
+    /**
+     * Copies a structure into newly allocated memory.
+     *
+     * @param src The structure.
+     * @param size The size of the structure.
+     * @return The copy.
+     */
+    public static Memory copy(Pointer src, long size) {
+        Memory out = new Memory(Math.max(size, 1));
+        copy(src, out, (int)size);
+        return out;
+    }
+    
 }
@@ -0,0 +1,537 @@
+package ca.weblite.objc;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Message sending through the Foreign Function &amp; Memory API.
+ *
+ * <p>Downcall handles for objc_msgSend are created with an exact
+ * {@link FunctionDescriptor} for each shape of arguments (integer-class,
+ * double, float, or a particular by-value {@link Structure} class) and are
+ * cached, so a message only pays for the native transition and boxing of its
+ * arguments.  Structures are passed by value natively, straight from the
+ * Structure's own memory, so none of the {@link RuntimeMappings} permutations
+ * are needed.</p>
+ *
+ * <p>Integer arguments are passed as 64 bit values, which is only right while
+ * they are in registers: arm64 packs stack arguments at their natural size.
+ * Messages whose arguments may not all fit in registers are therefore left
+ * to JNA, which sizes them from their Java types.</p>
+ *
+ * <p>This backend is used only when it is enabled with the system property
+ * {@code ca.weblite.objc.foreign=true}; otherwise the JNA backends are used.
+ * Run with {@code --enable-native-access=ALL-UNNAMED} to avoid the
+ * restricted method warning.</p>
+ *
+ * @author shannah
+ * @since 1.3
+ */
+final class ForeignRuntime implements ForeignSender {
+    
+    /**
+     * The FFM backend, or null if it is not enabled or can't be linked.
+     */
+    static final ForeignSender SENDER;
+    
+    private static final Linker LINKER;
+    private static final MemorySegment MSG_SEND;
+    private static final MemorySegment MSG_SEND_FPRET;
+    private static final MemorySegment MSG_SEND_STRET;
+    
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int FLOAT = 3;
+    private static final int STRUCT = 0;
+    
+    private static final int RETURN_LONG = 0;
+    private static final int RETURN_DOUBLE = 1;
+    private static final int RETURN_STRUCT = 2;
+    private static final int RETURN_STRET = 3;
+    
+    /**
+     * The argument registers left after the receiver and the selector: x2-x7
+     * and v0-v7 on arm64.
+     */
+    private static final int INTEGER_REGISTERS = 6;
+    private static final int FLOAT_REGISTERS = 8;
+    
+    /**
+     * Cached downcall handles, of type (Object[])long, (Object[])double,
+     * (SegmentAllocator,Object[])MemorySegment for structure returns or
+     * (Object[])void for objc_msgSend_stret, where the array holds the
+     * receiver, the selector and the arguments (preceded by the buffer for
+     * objc_msgSend_stret).
+     */
+    private static final ConcurrentHashMap<Shape,MethodHandle> handles = new ConcurrentHashMap<>();
+    
+    /**
+     * Layouts of by-value structure classes.
+     */
+    private static final ConcurrentHashMap<Class<?>,StructLayout> structLayouts = new ConcurrentHashMap<>();
+    
+    /**
+     * Layouts of returned structure types.
+     */
+    private static final ConcurrentHashMap<TypeEncoding,MemoryLayout> encodingLayouts = new ConcurrentHashMap<>();
+    
+    static {
+        ForeignSender sender = null;
+        Linker linker = null;
+        MemorySegment msgSend = null;
+        MemorySegment msgSendFpret = null;
+        MemorySegment msgSendStret = null;
+        if ("true".equals(System.getProperty("ca.weblite.objc.foreign"))) {
+            try {
+                linker = Linker.nativeLinker();
+                msgSend = MemorySegment.ofAddress(Pointer.nativeValue(RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend")));
+                msgSendFpret = DirectRuntime.IS_ARM64
+                        ? msgSend
+                        : MemorySegment.ofAddress(Pointer.nativeValue(RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend_fpret")));
+                msgSendStret = DirectRuntime.IS_ARM64
+                        ? null
+                        : MemorySegment.ofAddress(Pointer.nativeValue(RuntimeMappingsRegistry.getLibrary().getFunction("objc_msgSend_stret")));
+                sender = new ForeignRuntime();
+            } catch (LinkageError | RuntimeException ex) {
+                // Leave the JNA backends in charge
+            }
+        }
+        LINKER = linker;
+        MSG_SEND = msgSend;
+        MSG_SEND_FPRET = msgSendFpret;
+        MSG_SEND_STRET = msgSendStret;
+        SENDER = sender;
+    }
+    
+    private ForeignRuntime() {
+        
+    }
+    
+    /**
+     * Checks whether every argument of a message is a type that the downcall
+     * handles can pass: null, a Pointer, a primitive wrapper, a
+     * {@link NativeLong} or a {@link Structure.ByValue}.  Messages with other
+     * arguments, such as Strings, arrays, callbacks or structures passed by
+     * reference (which JNA reads back after the call), are left to JNA.  So
+     * are messages on arm64 whose arguments may need the stack.
+     *
+     * @param args The message arguments.
+     * @return True if the message can be sent with this backend.
+     */
+    @Override
+    public boolean canSend(Object[] args) {
+        int integers = 0;
+        int floats = 0;
+        for (Object arg : args) {
+            if (arg instanceof Double || arg instanceof Float) {
+                floats++;
+            } else if (arg instanceof Structure.ByValue) {
+                // At most two registers, or a pointer to a copy when larger
+                // than 16 bytes, or up to four vector registers for a
+                // structure of floating point members
+                integers += ((Structure)arg).size() > 16 ? 1 : 2;
+                floats += 4;
+            } else if (DirectRuntime.isIntegerArg(arg)
+                    || arg instanceof Character
+                    || arg instanceof NativeLong) {
+                integers++;
+            } else {
+                return false;
+            }
+        }
+        return !DirectRuntime.IS_ARM64 || (integers <= INTEGER_REGISTERS && floats <= FLOAT_REGISTERS);
+    }
+    
+    /**
+     * Sends a message through objc_msgSend.  The arguments must have been
+     * checked with {@link #canSend(Object[])}.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The integer-class return value.
+     */
+    @Override
+    public long msgSend(Pointer receiver, Pointer selector, Object[] args) {
+        MethodHandle handle = getHandle(RETURN_LONG, null, args);
+        try {
+            return (long)handle.invokeExact(toNative(null, receiver, selector, args));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    /**
+     * Sends a message that returns a floating point value.
+     *
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     * @return The floating point return value.
+     */
+    @Override
+    public double msgSendFpret(Pointer receiver, Pointer selector, Object[] args) {
+        MethodHandle handle = getHandle(RETURN_DOUBLE, null, args);
+        try {
+            return (double)handle.invokeExact(toNative(null, receiver, selector, args));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    /**
+     * Sends a message that returns a structure, with the exact layout of the
+     * structure so that the linker classifies it like the C compiler would.
+     *
+     * @param buffer The memory that the structure is returned in.
+     * @param layout The layout of the structure.
+     * @param receiver The receiver.
+     * @param selector The selector.
+     * @param args The arguments.
+     */
+    @Override
+    public void msgSendStructure(Pointer buffer, StructureLayout layout, Pointer receiver, Pointer selector, Object[] args) {
+        try {
+            if (layout.stret) {
+                MethodHandle handle = getHandle(RETURN_STRET, null, args);
+                handle.invokeExact(toNative(buffer, receiver, selector, args));
+            } else {
+                MethodHandle handle = getHandle(RETURN_STRUCT, getEncodingLayout(layout.encoding), args);
+                SegmentAllocator allocator = SegmentAllocator.prefixAllocator(
+                        MemorySegment.ofAddress(Pointer.nativeValue(buffer)).reinterpret(layout.size));
+                // The allocator hands the linker the buffer, so the result is already in place
+                MemorySegment result = (MemorySegment)handle.invokeExact(allocator, toNative(null, receiver, selector, args));
+            }
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    /**
+     * Converts the message arguments to the carrier types of the downcall handle.
+     */
+    private static Object[] toNative(Pointer stretBuffer, Pointer receiver, Pointer selector, Object[] args) {
+        int first = stretBuffer == null ? 2 : 3;
+        Object[] out = new Object[args.length + first];
+        if (stretBuffer != null) {
+            out[0] = Pointer.nativeValue(stretBuffer);
+        }
+        out[first-2] = Pointer.nativeValue(receiver);
+        out[first-1] = Pointer.nativeValue(selector);
+        for (int i=0; i<args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof Double || arg instanceof Float) {
+                out[i+first] = arg;
+            } else if (arg instanceof Structure.ByValue) {
+                Structure struct = (Structure)arg;
+                struct.write();
+                out[i+first] = MemorySegment.ofAddress(Pointer.nativeValue(struct.getPointer())).reinterpret(struct.size());
+            } else {
+                out[i+first] = toLong(arg);
+            }
+        }
+        return out;
+    }
+    
+    private static long toLong(Object arg) {
+        if (arg instanceof NativeLong) {
+            return ((NativeLong)arg).longValue();
+        } else if (arg instanceof Character) {
+            return (Character)arg;
+        }
+        return DirectRuntime.toLong(arg);
+    }
+    
+    private static MethodHandle getHandle(int returns, MemoryLayout returnLayout, Object[] args) {
+        Shape shape = new Shape(returns, returnLayout, args);
+        MethodHandle handle = handles.get(shape);
+        if (handle == null) {
+            handle = handles.computeIfAbsent(shape, ForeignRuntime::createHandle);
+        }
+        return handle;
+    }
+    
+    private static MethodHandle createHandle(Shape shape) {
+        int first = shape.returns == RETURN_STRET ? 3 : 2;
+        MemoryLayout[] argLayouts = new MemoryLayout[shape.kinds.length + first];
+        for (int i=0; i<first; i++) {
+            argLayouts[i] = ValueLayout.JAVA_LONG;
+        }
+        int structIndex = 0;
+        for (int i=0; i<shape.kinds.length; i++) {
+            switch (shape.kinds[i]) {
+                case DOUBLE:
+                    argLayouts[i+first] = ValueLayout.JAVA_DOUBLE;
+                    break;
+                case FLOAT:
+                    argLayouts[i+first] = ValueLayout.JAVA_FLOAT;
+                    break;
+                case STRUCT:
+                    argLayouts[i+first] = structLayouts.get(shape.structs[structIndex++]);
+                    break;
+                default:
+                    argLayouts[i+first] = ValueLayout.JAVA_LONG;
+            }
+        }
+        switch (shape.returns) {
+            case RETURN_DOUBLE:
+                return LINKER.downcallHandle(MSG_SEND_FPRET, FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, argLayouts))
+                        .asSpreader(Object[].class, argLayouts.length)
+                        .asType(MethodType.methodType(double.class, Object[].class));
+            case RETURN_STRUCT:
+                return LINKER.downcallHandle(MSG_SEND, FunctionDescriptor.of(shape.returnLayout, argLayouts))
+                        .asSpreader(Object[].class, argLayouts.length)
+                        .asType(MethodType.methodType(MemorySegment.class, SegmentAllocator.class, Object[].class));
+            case RETURN_STRET:
+                return LINKER.downcallHandle(MSG_SEND_STRET, FunctionDescriptor.ofVoid(argLayouts))
+                        .asSpreader(Object[].class, argLayouts.length)
+                        .asType(MethodType.methodType(void.class, Object[].class));
+            default:
+                return LINKER.downcallHandle(MSG_SEND, FunctionDescriptor.of(ValueLayout.JAVA_LONG, argLayouts))
+                        .asSpreader(Object[].class, argLayouts.length)
+                        .asType(MethodType.methodType(long.class, Object[].class));
+        }
+    }
+    
+    /**
+     * Builds the layout of a returned structure type from its type encoding.
+     */
+    private static MemoryLayout getEncodingLayout(TypeEncoding encoding) {
+        MemoryLayout layout = encodingLayouts.get(encoding);
+        if (layout == null) {
+            // Built outside the map, since nested structures look up their own layouts
+            layout = createEncodingLayout(encoding);
+            MemoryLayout existing = encodingLayouts.putIfAbsent(encoding, layout);
+            if (existing != null) {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+    
+    private static MemoryLayout createEncodingLayout(TypeEncoding encoding) {
+        switch (encoding.getKind()) {
+            case CHAR: case UNSIGNED_CHAR: case BOOL:
+                return ValueLayout.JAVA_BYTE;
+            case SHORT: case UNSIGNED_SHORT:
+                return ValueLayout.JAVA_SHORT;
+            case INT: case UNSIGNED_INT: case LONG: case UNSIGNED_LONG:
+                return ValueLayout.JAVA_INT;
+            case FLOAT:
+                return ValueLayout.JAVA_FLOAT;
+            case DOUBLE:
+                return ValueLayout.JAVA_DOUBLE;
+            case BITFIELD:
+                // Only reached for the members of a union
+                return encoding.getSize() == 8 ? ValueLayout.JAVA_LONG : ValueLayout.JAVA_INT;
+            case LONG_DOUBLE:
+                if (DirectRuntime.IS_ARM64) {
+                    return ValueLayout.JAVA_DOUBLE;
+                }
+                throw new UnsupportedOperationException("long double can't be returned in a structure");
+            case ARRAY:
+                return MemoryLayout.sequenceLayout(encoding.getCount(), getEncodingLayout(encoding.getPointee()));
+            case STRUCT: {
+                List<MemoryLayout> members = new ArrayList<>();
+                List<TypeEncoding> fields = encoding.getFields();
+                long position = 0;
+                for (int i=0; i<fields.size(); i++) {
+                    TypeEncoding field = fields.get(i);
+                    long bitOffset = encoding.getFieldBitOffset(i);
+                    long offset = bitOffset / 8;
+                    MemoryLayout member;
+                    if (field.getKind() == TypeEncoding.Kind.BITFIELD) {
+                        // Bit fields are bytes over the storage they use, which
+                        // may be shared with the fields before them
+                        offset = Math.max(offset, position);
+                        long end = (bitOffset + field.getCount() + 7) / 8;
+                        if (end <= offset) {
+                            continue;
+                        }
+                        member = MemoryLayout.sequenceLayout(end - offset, ValueLayout.JAVA_BYTE);
+                    } else {
+                        member = getEncodingLayout(field);
+                    }
+                    if (offset > position) {
+                        members.add(MemoryLayout.paddingLayout(offset - position));
+                    }
+                    members.add(member);
+                    position = offset + member.byteSize();
+                }
+                long size = encoding.getSize();
+                if (size > position) {
+                    members.add(MemoryLayout.paddingLayout(size - position));
+                }
+                return MemoryLayout.structLayout(members.toArray(new MemoryLayout[members.size()]))
+                        .withByteAlignment(encoding.getAlignment());
+            }
+            case UNION: {
+                List<MemoryLayout> members = new ArrayList<>();
+                for (TypeEncoding field : encoding.getFields()) {
+                    members.add(getEncodingLayout(field));
+                }
+                return MemoryLayout.unionLayout(members.toArray(new MemoryLayout[members.size()]));
+            }
+            default:
+                return ValueLayout.JAVA_LONG;
+        }
+    }
+    
+    /**
+     * Builds the layout of a by-value structure class from its JNA field order
+     * and field offsets.
+     */
+    private static StructLayout getStructLayout(Structure struct) {
+        Class<?> cls = struct.getClass();
+        StructLayout layout = structLayouts.get(cls);
+        if (layout == null) {
+            // Built outside the map, since nested structures look up their own layouts
+            layout = createStructLayout(struct);
+            StructLayout existing = structLayouts.putIfAbsent(cls, layout);
+            if (existing != null) {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+    
+    private static StructLayout createStructLayout(Structure struct) {
+        try {
+            Method getFieldOrder = Structure.class.getDeclaredMethod("getFieldOrder");
+            Method fieldOffset = Structure.class.getDeclaredMethod("fieldOffset", String.class);
+            getFieldOrder.setAccessible(true);
+            fieldOffset.setAccessible(true);
+            List<MemoryLayout> members = new ArrayList<>();
+            long position = 0;
+            for (Object name : (List<?>)getFieldOrder.invoke(struct)) {
+                Field field = struct.getClass().getField((String)name);
+                long offset = (int)fieldOffset.invoke(struct, name);
+                if (offset > position) {
+                    members.add(MemoryLayout.paddingLayout(offset - position));
+                }
+                MemoryLayout member = memberLayout(field.getType(), field.get(struct)).withName((String)name);
+                members.add(member);
+                position = offset + member.byteSize();
+            }
+            if (struct.size() > position) {
+                members.add(MemoryLayout.paddingLayout(struct.size() - position));
+            }
+            return MemoryLayout.structLayout(members.toArray(new MemoryLayout[members.size()]));
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("Cannot determine the layout of "+struct.getClass(), ex);
+        }
+    }
+    
+    private static MemoryLayout memberLayout(Class<?> type, Object value) {
+        if (type == long.class || type == NativeLong.class) {
+            return ValueLayout.JAVA_LONG;
+        } else if (type == int.class) {
+            return ValueLayout.JAVA_INT;
+        } else if (type == short.class) {
+            return ValueLayout.JAVA_SHORT;
+        } else if (type == byte.class) {
+            return ValueLayout.JAVA_BYTE;
+        } else if (type == boolean.class) {
+            // JNA maps boolean fields to a 32 bit int
+            return ValueLayout.JAVA_INT;
+        } else if (type == char.class) {
+            return Native.WCHAR_SIZE == 4 ? ValueLayout.JAVA_INT : ValueLayout.JAVA_SHORT;
+        } else if (type == double.class) {
+            return ValueLayout.JAVA_DOUBLE;
+        } else if (type == float.class) {
+            return ValueLayout.JAVA_FLOAT;
+        } else if (Pointer.class.isAssignableFrom(type)) {
+            return ValueLayout.ADDRESS;
+        } else if (Structure.class.isAssignableFrom(type)) {
+            return getStructLayout((Structure)value);
+        } else if (type.isArray()) {
+            int length = java.lang.reflect.Array.getLength(value);
+            return MemoryLayout.sequenceLayout(length, memberLayout(type.getComponentType(), length > 0 ? java.lang.reflect.Array.get(value, 0) : null));
+        }
+        throw new IllegalArgumentException("Unsupported structure field type "+type);
+    }
+    
+    /**
+     * The cache key of a downcall handle: return kind and layout, the kind of
+     * each argument and the classes of by-value structure arguments.
+     */
+    private static final class Shape {
+        final int returns;
+        final MemoryLayout returnLayout;
+        final int[] kinds;
+        final Class<?>[] structs;
+        final int hashCode;
+        
+        Shape(int returns, MemoryLayout returnLayout, Object[] args) {
+            this.returns = returns;
+            this.returnLayout = returnLayout;
+            kinds = new int[args.length];
+            int numStructs = 0;
+            for (int i=0; i<args.length; i++) {
+                Object arg = args[i];
+                if (arg instanceof Double) {
+                    kinds[i] = DOUBLE;
+                } else if (arg instanceof Float) {
+                    kinds[i] = FLOAT;
+                } else if (arg instanceof Structure.ByValue) {
+                    kinds[i] = STRUCT;
+                    numStructs++;
+                } else {
+                    kinds[i] = LONG;
+                }
+            }
+            if (numStructs > 0) {
+                structs = new Class<?>[numStructs];
+                int j = 0;
+                for (int i=0; i<args.length; i++) {
+                    if (kinds[i] == STRUCT) {
+                        getStructLayout((Structure)args[i]);
+                        structs[j++] = args[i].getClass();
+                    }
+                }
+            } else {
+                structs = null;
+            }
+            hashCode = 31 * (31 * (31 * returns + Objects.hashCode(returnLayout)) + Arrays.hashCode(kinds)) + Arrays.hashCode(structs);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) {
+                return false;
+            }
+            Shape s = (Shape)o;
+            return s.returns == returns && Objects.equals(s.returnLayout, returnLayout) && Arrays.equals(s.kinds, kinds) && Arrays.equals(s.structs, structs);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -48,6 +48,10 @@ import com.sun.jna.Structure;
  * <h2>Sample Usage</h2>
  * <script src="https://gist.github.com/3974488.js?file=SampleLowLevelAPI.java"></script>
  *
+ * <p>Each interface loads its {@code INSTANCE} when it is first initialized.  The bridge
+ * itself does not use these fields; it creates the mapping for a pattern through
+ * {@link RuntimeMappingsRegistry} the first time a message with that pattern is sent.</p>
+ *
  * @author shannah
  * @see <a href="https://developer.apple.com/library/mac/#documentation/Cocoa/Reference/ObjCRuntimeRef/Reference/reference.html">Objective-C Runtime Reference</a>
  * @version $Id: $Id
@@ -0,0 +1,94 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ *
+ * @author shannah
+ */
+public class AutoreleasePoolTest {
+
+    /**
+     * The malloc statistics of the default zone.
+     */
+    public interface LibC extends Library {
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        MStats.ByValue mstats();
+    }
+
+    @Structure.FieldOrder({"bytesTotal", "chunksUsed", "bytesUsed", "chunksFree", "bytesFree"})
+    public static class MStats extends Structure {
+        public long bytesTotal;
+        public long chunksUsed;
+        public long bytesUsed;
+        public long chunksFree;
+        public long bytesFree;
+
+        public static class ByValue extends MStats implements Structure.ByValue { }
+    }
+
+    @Test
+    public void testNestedPools() {
+        Pointer object = msgPointer("NSObject", "new");
+        try (AutoreleasePool outer = Client.getInstance().autoreleasePool()) {
+            try (AutoreleasePool inner = AutoreleasePool.push()) {
+                msgPointer(msgPointer(object, "retain"), "autorelease");
+                assertEquals(2L, msg(object, "retainCount"));
+            }
+            assertEquals(1L, msg(object, "retainCount"));
+
+            AutoreleasePool unclosed = AutoreleasePool.push();
+            outer.close();
+            assertTrue(unclosed.isClosed());
+            unclosed.close();
+        }
+        assertEquals(1L, msg(object, "retainCount"));
+        msg(object, "release");
+    }
+
+    @Test
+    public void testAutoDrain() {
+        Pointer object = msgPointer("NSObject", "new");
+        try (AutoreleasePool pool = Client.getInstance().autoreleasePool(3)) {
+            msgPointer(msgPointer(object, "retain"), "autorelease");
+            assertEquals(2L, msg(object, "retainCount"));
+            Client c = Client.getInstance();
+            for (int i=0; i<3; i++) {
+                c.send(object, "hash");
+            }
+            assertEquals(1L, msg(object, "retainCount"));
+        }
+        msg(object, "release");
+    }
+
+    /**
+     * Sends a million messages that each autorelease a new NSString, and
+     * checks that malloc'd memory stays flat.
+     */
+    @Test
+    public void testSoak() {
+        Client c = Client.getInstance();
+        Pointer nsString = cls("NSString");
+        Pointer stringWithUTF8String = sel("stringWithUTF8String:");
+        long baseline = 0L;
+        try (AutoreleasePool pool = c.autoreleasePool(1000)) {
+            for (int i=0; i<1000000; i++) {
+                c.send(nsString, stringWithUTF8String, "A string that is too long to be a tagged pointer "+(i % 100));
+                if (i == 100000) {
+                    baseline = LibC.INSTANCE.mstats().bytesUsed;
+                }
+            }
+            long growth = LibC.INSTANCE.mstats().bytesUsed - baseline;
+            assertTrue(growth < 8L * 1024 * 1024, "Native memory grew by "+growth+" bytes");
+        }
+    }
+}
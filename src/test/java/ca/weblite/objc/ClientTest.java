@@ -4,6 +4,12 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.Test;
 
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.foundation.CGRect;
+import ca.weblite.objc.foundation.CGSize;
+import ca.weblite.objc.foundation.NSRange;
+
 /**
  *
  * @author shannah
@@ -30,4 +36,83 @@ public class ClientTest {
         assertEquals("Test String", lastString);
     }
     
+    @Test
+    public void testBind() {
+        Client c = Client.getInstance();
+        Proxy array = c.sendProxy("NSMutableArray", "array");
+        
+        CallSite addObject = c.bind("NSMutableArray", "addObject:");
+        CallSite objectAtIndex = c.bind("NSMutableArray", "objectAtIndex:");
+        CallSite count = c.bind("NSMutableArray", "count");
+        assertEquals(1, addObject.getArgumentCount());
+        
+        addObject.invoke(array, "Hello");
+        addObject.invoke(array, "World");
+        
+        assertEquals(2L, count.invoke(array));
+        assertEquals("World", objectAtIndex.invoke(array, 1));
+        
+        // Class methods are bound when there is no instance method
+        CallSite stringWithUTF8String = c.bind("NSString", "stringWithUTF8String:");
+        assertEquals("Test String", stringWithUTF8String.invoke(RuntimeUtils.cls("NSString"), "Test String"));
+    }
+    
+    @Test
+    public void testPrimitiveSends() {
+        Client c = Client.getInstance();
+        Proxy array = c.sendProxy("NSMutableArray", "array");
+        Pointer addObject = RuntimeUtils.sel("addObject:");
+        
+        c.sendVoid(array.getPeer(), addObject, RuntimeUtils.str("Hello"));
+        array.sendVoid(addObject, RuntimeUtils.str("World"));
+        assertEquals(2L, c.sendLong(array.getPeer(), RuntimeUtils.sel("count")));
+        assertEquals(2L, array.sendLong(RuntimeUtils.sel("count")));
+        
+        Pointer world = new Pointer(array.sendLong(RuntimeUtils.sel("objectAtIndex:"), 1L));
+        assertEquals("World", RuntimeUtils.str(world));
+        
+        Proxy operation = c.sendProxy("NSOperation", "new");
+        c.sendVoid(operation.getPeer(), RuntimeUtils.sel("setThreadPriority:"), 0.25);
+        assertEquals(0.25, c.sendDouble(operation.getPeer(), RuntimeUtils.sel("threadPriority")), 0.0001);
+        operation.sendVoid(RuntimeUtils.sel("setThreadPriority:"), 0.75);
+        assertEquals(0.75, operation.sendRawDouble(RuntimeUtils.sel("threadPriority")), 0.0001);
+        operation.send("release");
+    }
+    
+    @Test
+    public void testStringSubclassesMapToStrings() {
+        Client c = Client.getInstance();
+        Object mutable = c.send("NSMutableString", "stringWithString:", "Mutable");
+        assertEquals("Mutable", mutable);
+        
+        // Path strings are an NSString subclass that the old class name check missed
+        Object path = c.send("NSString", "pathWithComponents:", c.send("NSArray", "arrayWithObject:", "tmp"));
+        assertEquals("tmp", path);
+        
+        Object array = c.send("NSMutableArray", "array");
+        assertTrue(array instanceof Proxy);
+    }
+    
+    @Test
+    public void testStructureReturns() {
+        Client c = Client.getInstance();
+        NSRange range = (NSRange)c.send(RuntimeUtils.str("Hello World"), "rangeOfString:", "World");
+        assertEquals(6, range.getLocation());
+        assertEquals(5, range.getLength());
+        
+        Proxy value = c.sendProxy("NSValue", "valueWithRect:", new CGRect.ByValue(1, 2, 3, 4));
+        CGRect rect = (CGRect)value.send("rectValue");
+        assertEquals(1.0, rect.origin.x, 0.0001);
+        assertEquals(2.0, rect.origin.y, 0.0001);
+        assertEquals(3.0, rect.size.width, 0.0001);
+        assertEquals(4.0, rect.size.height, 0.0001);
+        
+        CGSize size = (CGSize)value.send("sizeValue");
+        assertEquals(3.0, size.width, 0.0001);
+        
+        // Without coercion the structure's bytes are returned
+        Pointer raw = (Pointer)Client.getRawClient().send(value.getPeer(), RuntimeUtils.sel("rectValue"));
+        assertEquals(4.0, raw.getDouble(24), 0.0001);
+    }
+    
 }
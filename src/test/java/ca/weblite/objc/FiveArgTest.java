@@ -1,5 +1,7 @@
 package ca.weblite.objc;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -18,4 +20,16 @@ public class FiveArgTest {
     }
 
     
+    /**
+     * Messages with more than 7 arguments go through the generic dispatch path.
+     */
+    @Test
+    public void testEightArgs() {
+        Client c = Client.getInstance();
+        Proxy calendar = c.sendProxy("NSCalendar", "calendarWithIdentifier:", "gregorian");
+        Proxy date = calendar.sendProxy("dateWithEra:year:month:day:hour:minute:second:nanosecond:", 1, 2012, 10, 30, 12, 0, 0, 0);
+        // NSCalendarUnitYear = 4
+        assertEquals(2012, calendar.sendInt("component:fromDate:", 4, date));
+        assertEquals(30, calendar.sendInt("component:fromDate:", 16, date));
+    }
 }
@@ -0,0 +1,100 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.foundation.CGRect;
+
+/**
+ * Compares the interface-mapped {@link Runtime} with the direct-mapped
+ * {@link DirectRuntime} for short messages, and measures messages that
+ * return structures against ones that return scalars.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main MsgSendBenchmark
+ * </pre>
+ *
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MsgSendBenchmark {
+    
+    private Pointer array;
+    private Pointer count;
+    private Pointer objectAtIndex;
+    private Pointer rect;
+    private Pointer rectValue;
+    
+    @Setup
+    public void setup() {
+        array = msgPointer("NSMutableArray", "new");
+        msg(array, "addObject:", str("Test String"));
+        count = sel("count");
+        objectAtIndex = sel("objectAtIndex:");
+        rect = msgPointer(msgPointer("NSValue", "valueWithRect:", new CGRect.ByValue(1, 2, 3, 4)), "retain");
+        rectValue = sel("rectValue");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        msg(array, "release");
+        msg(rect, "release");
+    }
+    
+    @Benchmark
+    public long interfaceMappingNoArgs() {
+        return Runtime.INSTANCE.objc_msgSend(array, count);
+    }
+    
+    @Benchmark
+    public long directMappingNoArgs() {
+        return DirectRuntime.objc_msgSend(Pointer.nativeValue(array), Pointer.nativeValue(count));
+    }
+    
+    @Benchmark
+    public long interfaceMappingOneArg() {
+        return Runtime.INSTANCE.objc_msgSend(array, objectAtIndex, 0L);
+    }
+    
+    @Benchmark
+    public long directMappingOneArg() {
+        return DirectRuntime.objc_msgSend(Pointer.nativeValue(array), Pointer.nativeValue(objectAtIndex), 0L);
+    }
+    
+    @Benchmark
+    public long runtimeUtilsMsg() {
+        return msg(array, count);
+    }
+    
+    @Benchmark
+    public Object runtimeUtilsMsgScalar() {
+        return msg(true, false, array, count);
+    }
+    
+    @Benchmark
+    public Object runtimeUtilsMsgStructure() {
+        return msg(true, false, rect, rectValue);
+    }
+}
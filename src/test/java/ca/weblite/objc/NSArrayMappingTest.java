@@ -0,0 +1,56 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.mappers.NSArrayMapping;
+
+/**
+ *
+ * @author shannah
+ */
+public class NSArrayMappingTest {
+
+    private Pointer autoreleasePool;
+
+    @BeforeEach
+    public void setup() {
+        autoreleasePool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        msg(autoreleasePool, "drain");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Pointer array = NSArrayMapping.toNSArray(Arrays.asList("One", null, "Three"));
+        assertEquals(3L, (long)msg(array, "count"));
+        assertEquals("Three", str(msgPointer(array, "objectAtIndex:", 2L)));
+
+        List<Object> list = NSArrayMapping.toList(array);
+        assertEquals(Arrays.asList("One", null, "Three"), list);
+        assertTrue(NSArrayMapping.toList(msgPointer("NSArray", "array")).isEmpty());
+    }
+
+    @Test
+    public void testArgumentsAndReturns() {
+        Client c = Client.getInstance();
+        Proxy array = c.sendProxy("NSMutableArray", "arrayWithArray:", Arrays.asList("A", "B"));
+        assertEquals(2L, array.sendLong(sel("count")));
+
+        Client listClient = new Client(new TypeMapper().register(NSArrayMapping.INSTANCE));
+        Object nested = listClient.send("NSArray", "arrayWithObject:", array);
+        assertEquals(Arrays.asList(Arrays.asList("A", "B")), nested);
+    }
+}
@@ -0,0 +1,72 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.mappers.NSDataMapping;
+
+/**
+ *
+ * @author shannah
+ */
+public class NSDataMappingTest {
+
+    private Pointer autoreleasePool;
+
+    @BeforeEach
+    public void setup() {
+        autoreleasePool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        msg(autoreleasePool, "drain");
+    }
+
+    @Test
+    public void testDirectBufferIsNotCopied() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put("Hello World".getBytes(StandardCharsets.UTF_8));
+        buffer.flip();
+        Pointer data = NSDataMapping.toNSData(buffer);
+        assertEquals(11L, (long)msg(data, "length"));
+        assertEquals(Pointer.nativeValue(Native.getDirectBufferPointer(buffer)), msg(data, "bytes"));
+
+        ByteBuffer view = NSDataMapping.toByteBuffer(data);
+        assertTrue(view.isDirect());
+        assertTrue(view.isReadOnly());
+        assertEquals(11, view.remaining());
+        assertEquals('H', view.get(0));
+        assertThrows(ReadOnlyBufferException.class, () -> view.put(0, (byte)'J'));
+
+        // Writes to the buffer are visible through the NSData
+        buffer.put(0, (byte)'J');
+        assertEquals('J', view.get(0));
+    }
+
+    @Test
+    public void testArgumentsAndReturns() {
+        ByteBuffer buffer = ByteBuffer.wrap("Hello".getBytes(StandardCharsets.UTF_8));
+        Client c = Client.getInstance();
+        Proxy data = c.sendProxy("NSData", "dataWithData:", buffer);
+        assertEquals(5L, data.sendLong(sel("length")));
+
+        TypeMapper mapper = new TypeMapper().register(NSDataMapping.INSTANCE);
+        Client dataClient = new Client(mapper);
+        Object view = dataClient.send(data.getPeer(), "self");
+        assertTrue(view instanceof ByteBuffer);
+        assertEquals('H', ((ByteBuffer)view).get(0));
+        assertTrue(dataClient.send("NSString", "string") instanceof String);
+    }
+}
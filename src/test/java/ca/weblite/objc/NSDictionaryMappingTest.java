@@ -0,0 +1,76 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.mappers.NSArrayMapping;
+import ca.weblite.objc.mappers.NSDictionaryMapping;
+
+/**
+ *
+ * @author shannah
+ */
+public class NSDictionaryMappingTest {
+
+    private Pointer autoreleasePool;
+
+    @BeforeEach
+    public void setup() {
+        autoreleasePool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        msg(autoreleasePool, "drain");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String,Object> map = new LinkedHashMap<>();
+        map.put("one", "1");
+        map.put("none", null);
+        Pointer dict = NSDictionaryMapping.toNSDictionary(map);
+        assertEquals(2L, (long)msg(dict, "count"));
+        assertEquals("1", str(msgPointer(dict, "objectForKey:", str("one"))));
+
+        assertEquals(map, NSDictionaryMapping.toMap(dict));
+        assertTrue(NSDictionaryMapping.toMap(msgPointer("NSDictionary", "dictionary")).isEmpty());
+    }
+
+    @Test
+    public void testLazyValues() {
+        Map<String,Object> map = new LinkedHashMap<>();
+        for (int i=0; i<100; i++) {
+            map.put("key"+i, "value"+i);
+        }
+        Map<Object,Object> lazy = NSDictionaryMapping.toMap(NSDictionaryMapping.toNSDictionary(map), TypeMapper.getInstance(), true);
+        assertEquals(100, lazy.size());
+        assertEquals("value42", lazy.get("key42"));
+        assertNull(lazy.get("missing"));
+        assertEquals(map, lazy);
+        assertThrows(UnsupportedOperationException.class, () -> lazy.put("key0", "changed"));
+    }
+
+    @Test
+    public void testArgumentsAndReturns() {
+        Map<String,Object> map = new LinkedHashMap<>();
+        map.put("list", Arrays.asList("A", "B"));
+        Client c = Client.getInstance();
+        Proxy dict = c.sendProxy("NSMutableDictionary", "dictionaryWithDictionary:", map);
+        assertEquals(1L, dict.sendLong(sel("count")));
+
+        Client mapClient = new Client(new TypeMapper().register(NSDictionaryMapping.INSTANCE).register(NSArrayMapping.INSTANCE));
+        Object copy = mapClient.send("NSDictionary", "dictionaryWithDictionary:", dict);
+        assertEquals(map, copy);
+    }
+}
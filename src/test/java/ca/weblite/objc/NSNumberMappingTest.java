@@ -0,0 +1,64 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+import ca.weblite.objc.mappers.NSArrayMapping;
+import ca.weblite.objc.mappers.NSNumberMapping;
+
+/**
+ *
+ * @author shannah
+ */
+public class NSNumberMappingTest {
+
+    private Pointer autoreleasePool;
+
+    @BeforeEach
+    public void setup() {
+        autoreleasePool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        msg(autoreleasePool, "drain");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertEquals(42, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(42)));
+        assertEquals(100000, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(100000)));
+        assertEquals(Long.MAX_VALUE, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(Long.MAX_VALUE)));
+        assertEquals(2.5, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(2.5)));
+        assertEquals(Boolean.TRUE, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(true)));
+        assertEquals(Boolean.FALSE, NSNumberMapping.toNumber(NSNumberMapping.toNSNumber(false)));
+        assertEquals(1.5f, NSNumberMapping.toNumber(msgPointer("NSNumber", "numberWithFloat:", 1.5f)));
+        assertFalse(NSNumberMapping.isNSNumber(str("42")));
+    }
+
+    @Test
+    public void testSmallValuesAreShared() {
+        assertEquals(NSNumberMapping.toNSNumber(7), NSNumberMapping.toNSNumber(7));
+        assertEquals(NSNumberMapping.toNSNumber(7L), NSNumberMapping.toNSNumber(7L));
+        assertEquals(NSNumberMapping.toNSNumber(true), NSNumberMapping.toNSNumber(true));
+    }
+
+    @Test
+    public void testArgumentsAndReturns() {
+        Client c = Client.getInstance();
+        Proxy array = c.sendProxy("NSArray", "arrayWithObject:", 5);
+        assertTrue(array.sendBoolean("containsObject:", 5));
+
+        Client numberClient = new Client(new TypeMapper().register(NSNumberMapping.INSTANCE).register(NSArrayMapping.INSTANCE));
+        assertEquals(5, numberClient.send(array, "firstObject"));
+        assertEquals(Arrays.asList(1, 2.5, true), numberClient.send("NSArray", "arrayWithArray:", Arrays.asList(1, 2.5, true)));
+    }
+}
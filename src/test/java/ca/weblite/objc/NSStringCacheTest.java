@@ -0,0 +1,67 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+/**
+ *
+ * @author shannah
+ */
+public class NSStringCacheTest {
+
+    private Pointer autoreleasePool;
+
+    @BeforeEach
+    public void setup() {
+        autoreleasePool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+        NSStringCache.setEnabled(true);
+        NSStringCache.resetStatistics();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        NSStringCache.clear();
+        NSStringCache.setEnabled(false);
+        msg(autoreleasePool, "drain");
+    }
+
+    @Test
+    public void testCache() {
+        Pointer first = NSStringCache.get("objectForKey");
+        assertSame(first, NSStringCache.get("objectForKey"));
+        assertEquals("objectForKey", str(first));
+        assertEquals(1, NSStringCache.getHitCount());
+        assertEquals(1, NSStringCache.getMissCount());
+        assertEquals(0.5, NSStringCache.getHitRate(), 0.0001);
+
+        // Evicted strings stay valid until the pool is drained
+        for (int i = 0; i < 1000; i++) {
+            NSStringCache.get("key"+i);
+        }
+        assertTrue(NSStringCache.getEvictionCount() > 0);
+        assertEquals("objectForKey", str(first));
+    }
+
+    @Test
+    public void testIntern() {
+        Pointer name = NSStringCache.intern("NSWindowDidResizeNotification");
+        assertSame(name, NSStringCache.intern("NSWindowDidResizeNotification"));
+        NSStringCache.setEnabled(false);
+        assertSame(name, NSStringCache.get("NSWindowDidResizeNotification"));
+    }
+
+    @Test
+    public void testArgumentsUseCache() {
+        Client c = Client.getInstance();
+        Proxy dict = c.sendProxy("NSMutableDictionary", "dictionary");
+        dict.send("setObject:forKey:", "Value", "Key");
+        assertEquals("Value", dict.send("objectForKey:", "Key"));
+        assertTrue(NSStringCache.getHitCount() > 0);
+    }
+}
@@ -0,0 +1,100 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Compares the primitive send overloads of {@link Client} with the boxed
+ * {@code send()} path.  Run with the gc profiler to see the allocation per
+ * call, which should be 0 B/op for the {@code primitive*} benchmarks.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main PrimitiveSendBenchmark -prof gc
+ * </pre>
+ *
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveSendBenchmark {
+    
+    private Client client;
+    private Client rawClient;
+    private Pointer operation;
+    private Pointer array;
+    private Pointer setThreadPriority;
+    private Pointer threadPriority;
+    private Pointer objectAtIndex;
+    private double priority;
+    
+    @Setup
+    public void setup() {
+        client = Client.getInstance();
+        rawClient = Client.getRawClient();
+        operation = msgPointer(msgPointer("NSOperation", "alloc"), "init");
+        array = msgPointer("NSMutableArray", "new");
+        msg(array, "addObject:", str("Test String"));
+        setThreadPriority = sel("setThreadPriority:");
+        threadPriority = sel("threadPriority");
+        objectAtIndex = sel("objectAtIndex:");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        msg(operation, "release");
+        msg(array, "release");
+    }
+    
+    @Benchmark
+    public void boxedSetDouble() {
+        priority = priority > 0.5 ? 0.25 : 0.75;
+        rawClient.send(operation, setThreadPriority, priority);
+    }
+    
+    @Benchmark
+    public void primitiveSetDouble() {
+        priority = priority > 0.5 ? 0.25 : 0.75;
+        client.sendVoid(operation, setThreadPriority, priority);
+    }
+    
+    @Benchmark
+    public double boxedGetDouble() {
+        return (Double)rawClient.send(operation, threadPriority);
+    }
+    
+    @Benchmark
+    public double primitiveGetDouble() {
+        return client.sendDouble(operation, threadPriority);
+    }
+    
+    @Benchmark
+    public Object boxedObjectAtIndex() {
+        return rawClient.send(array, objectAtIndex, 0L);
+    }
+    
+    @Benchmark
+    public long primitiveObjectAtIndex() {
+        return client.sendLong(array, objectAtIndex, 0L);
+    }
+}
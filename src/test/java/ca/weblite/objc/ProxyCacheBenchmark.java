@@ -0,0 +1,92 @@
+package ca.weblite.objc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Loads and releases proxies for fake object addresses from several threads
+ * at once, comparing the proxy cache with the single synchronized HashMap it
+ * replaced.  No messages are sent, so this runs on any platform.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main ProxyCacheBenchmark
+ * </pre>
+ *
+ * @author shannah
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ProxyCacheBenchmark {
+    
+    /**
+     * The number of distinct objects that the threads share.
+     */
+    @Param({"64", "65536"})
+    public int objects;
+    
+    private Pointer[] peers;
+    
+    private final Map<Pointer,Proxy> hashMap = new HashMap<>();
+    
+    @Setup
+    public void setup() {
+        peers = new Pointer[objects];
+        for (int i=0; i<objects; i++) {
+            peers[i] = new Pointer(0x7f0000000000L + i * 16L);
+        }
+    }
+    
+    @Benchmark
+    public Proxy proxyCache() {
+        Proxy p = Proxy.load(peers[ThreadLocalRandom.current().nextInt(objects)]);
+        Proxy.release(p);
+        return p;
+    }
+    
+    @Benchmark
+    public Proxy synchronizedHashMap() {
+        Pointer peer = peers[ThreadLocalRandom.current().nextInt(objects)];
+        Proxy p;
+        synchronized (hashMap) {
+            p = hashMap.get(peer);
+            if (p == null) {
+                p = new Proxy(peer);
+                hashMap.put(peer, p);
+            }
+        }
+        synchronized (hashMap) {
+            hashMap.remove(peer);
+        }
+        return p;
+    }
+    
+    @Benchmark
+    public int drainWhileLoading() {
+        Proxy.load(peers[ThreadLocalRandom.current().nextInt(objects)]);
+        return Proxy.drainCache(10, TimeUnit.MICROSECONDS);
+    }
+}
@@ -0,0 +1,108 @@
+package ca.weblite.objc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Exercises the proxy cache with fake object addresses.  No messages are
+ * sent to them.
+ *
+ * @author shannah
+ */
+public class ProxyCacheTest {
+
+    @Test
+    public void testLoadAndRelease() {
+        ProxyCache cache = new ProxyCache();
+        List<Proxy> proxies = new ArrayList<>();
+        for (int i=1; i<=1000; i++) {
+            proxies.add(cache.load(new Pointer(i * 16L)));
+        }
+        assertEquals(1000, cache.size());
+        for (int i=1; i<=1000; i++) {
+            assertSame(proxies.get(i - 1), cache.load(new Pointer(i * 16L)));
+            assertEquals(2, proxies.get(i - 1).getRetainCount());
+        }
+        for (int i=0; i<1000; i+=2) {
+            Proxy p = proxies.get(i);
+            Proxy.release(p);
+            assertFalse(cache.removeIfUnused(p));
+            Proxy.release(p);
+            assertTrue(cache.removeIfUnused(p));
+        }
+        assertEquals(500, cache.size());
+        for (int i=1; i<=1000; i++) {
+            Proxy p = cache.get(i * 16L);
+            if (i % 2 == 1) {
+                assertNull(p);
+            } else {
+                assertSame(proxies.get(i - 1), p);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalDrain() {
+        ProxyCache cache = new ProxyCache();
+        for (int i=1; i<=10000; i++) {
+            Proxy p = cache.load(new Pointer(i * 16L));
+            if (i % 10 != 0) {
+                Proxy.release(p);
+            }
+        }
+        int removed = 0;
+        for (int i=0; i<64; i++) {
+            removed += cache.drain(System.nanoTime());
+        }
+        assertEquals(9000, removed);
+        assertEquals(1000, cache.size());
+        for (int i=10; i<=10000; i+=10) {
+            assertNotNull(cache.get(i * 16L));
+        }
+        assertEquals(0, cache.drain(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentLoadAndRelease() throws Exception {
+        long base = 0x7f0000000000L;
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t=0; t<threads; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i=0; i<200000; i++) {
+                        Pointer peer = new Pointer(base + random.nextInt(64) * 16L);
+                        Proxy p = Proxy.load(peer);
+                        assertEquals(peer, p.getPeer());
+                        assertTrue(p.getRetainCount() > 0);
+                        assertSame(p, Proxy.load(peer));
+                        Proxy.release(p);
+                        Proxy.release(p);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Proxy.drainCache();
+        for (int i=0; i<64; i++) {
+            assertNull(Proxy.getCachedProxy(base + i * 16L));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ca.weblite.objc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Checks leak detection with fake object addresses.  No messages are sent to
+ * them.
+ *
+ * @author shannah
+ */
+public class ProxyLeakDetectorTest {
+
+    @AfterEach
+    public void tearDown() {
+        ProxyLeakDetector.setSamplingRate(0.0);
+        ProxyLeakDetector.setMaxAge(1, TimeUnit.MINUTES);
+        ProxyLeakDetector.setListener(null);
+    }
+
+    @Test
+    public void testReportsRetainedProxies() {
+        List<ProxyLeakDetector.Leak> reported = new ArrayList<>();
+        ProxyLeakDetector.setListener(reported::add);
+        ProxyLeakDetector.setSamplingRate(1.0);
+        ProxyLeakDetector.setMaxAge(0, TimeUnit.MILLISECONDS);
+
+        Proxy leaked = Proxy.load(new Pointer(0x7d0000000010L));
+        Proxy released = Proxy.load(new Pointer(0x7d0000000020L));
+        Proxy.release(released);
+
+        List<ProxyLeakDetector.Leak> leaks = ProxyLeakDetector.report();
+        assertEquals(1, leaks.size());
+        ProxyLeakDetector.Leak leak = leaks.get(0);
+        assertEquals(0x7d0000000010L, leak.getAddress());
+        assertEquals(1, leak.getRetainCount());
+        assertNull(leak.getSelector());
+        boolean fromTest = false;
+        for (StackTraceElement e : leak.getStackTrace()) {
+            fromTest |= e.getMethodName().equals("testReportsRetainedProxies");
+        }
+        assertTrue(fromTest);
+
+        // Each leak is passed to the listener once
+        ProxyLeakDetector.report();
+        assertEquals(1, reported.size());
+
+        Proxy.release(leaked);
+        assertTrue(ProxyLeakDetector.report().isEmpty());
+    }
+
+    @Test
+    public void testYoungProxiesAreNotReported() {
+        ProxyLeakDetector.setSamplingRate(1.0);
+        Proxy p = Proxy.load(new Pointer(0x7d0000000030L));
+        assertTrue(ProxyLeakDetector.report().isEmpty());
+        Proxy.release(p);
+    }
+
+    @Test
+    public void testSamplingOff() {
+        int tracked = ProxyLeakDetector.getTrackedCount();
+        Proxy p = Proxy.load(new Pointer(0x7d0000000040L));
+        assertEquals(tracked, ProxyLeakDetector.getTrackedCount());
+        Proxy.release(p);
+    }
+}
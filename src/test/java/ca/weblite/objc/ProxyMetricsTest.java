@@ -0,0 +1,52 @@
+package ca.weblite.objc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Checks the proxy counters with fake object addresses.  No messages are
+ * sent to them.
+ *
+ * @author shannah
+ */
+public class ProxyMetricsTest {
+
+    @Test
+    public void testCounters() {
+        ProxyMetrics.Snapshot before = ProxyMetrics.snapshot();
+        Pointer peer = new Pointer(0x7e0000000010L);
+        Proxy p = Proxy.load(peer);
+        Proxy.load(peer);
+        Proxy.load(peer);
+
+        ProxyMetrics.Snapshot during = ProxyMetrics.snapshot();
+        assertEquals(3, during.getLoads() - before.getLoads());
+        assertEquals(2, during.getHits() - before.getHits());
+        assertEquals(1, during.getMisses() - before.getMisses());
+        assertEquals(1, during.getCachedProxies() - before.getCachedProxies());
+        assertEquals(1, during.getRetainCountHistogram()[2] - before.getRetainCountHistogram()[2]);
+
+        for (int i=0; i<3; i++) {
+            Proxy.release(p);
+        }
+        ProxyMetrics.Snapshot after = ProxyMetrics.snapshot();
+        assertEquals(3, after.getReleases() - during.getReleases());
+        assertEquals(1, after.getRemovals() - during.getRemovals());
+        assertEquals(before.getCachedProxies(), after.getCachedProxies());
+        assertTrue(after.getHitRate() > 0.0);
+        assertThrows(UnsupportedOperationException.class, () -> after.getLiveByClass().put("NSObject", 1L));
+    }
+
+    @Test
+    public void testDrainCounters() {
+        ProxyMetrics.Snapshot before = ProxyMetrics.snapshot();
+        Proxy.drainCache();
+        Proxy.drainCache(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, ProxyMetrics.snapshot().getDrains() - before.getDrains());
+    }
+}
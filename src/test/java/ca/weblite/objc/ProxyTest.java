@@ -73,4 +73,29 @@ public class ProxyTest {
         assertEquals(2, newArray.sendInt("count"));
     }
     
+    @Test
+    public void testNativeOwnership() throws Exception {
+        Pointer array = msgPointer("NSMutableArray", "new");
+        Proxy.setNativeOwnership(true);
+        try {
+            Proxy p = Proxy.load(array);
+            assertEquals(2L, msg(array, "retainCount"));
+            assertNotSame(p, Proxy.load(array));
+            p = null;
+            for (int i=0; i<50 && msg(array, "retainCount") > 1L; i++) {
+                System.gc();
+                Thread.sleep(20);
+                Proxy.drainReleases();
+            }
+            assertEquals(1L, msg(array, "retainCount"));
+
+            Proxy disposed = Proxy.load(array);
+            disposed.dispose(false);
+            assertEquals(1L, msg(array, "retainCount"));
+        } finally {
+            Proxy.setNativeOwnership(false);
+            msg(array, "release");
+        }
+    }
+    
 }
@@ -176,4 +176,63 @@ public class RuntimeUtilsTest {
         assertEquals(outString, firstItem);
     }
     
+    @Test
+    public void testSelectorAndClassCache() {
+        Pointer first = sel("stringWithUTF8String:");
+        long hits = getSelectorCacheHits();
+        Pointer second = sel("stringWithUTF8String:");
+        assertEquals(first, second);
+        assertEquals(hits + 1, getSelectorCacheHits());
+        
+        // Missing classes are cached too, so only the first lookup is a miss
+        assertNull(cls("NoSuchClassForRuntimeUtilsTest"));
+        long misses = getClassCacheMisses();
+        assertNull(cls("NoSuchClassForRuntimeUtilsTest"));
+        assertEquals(misses, getClassCacheMisses());
+        
+        clearClassCache();
+        assertEquals("NSString", clsName(cls("NSString")));
+    }
+    
+    @Test
+    public void testMethodSignatureCache() {
+        Pointer string = str("Test String");
+        MethodSignature first = getMethodSignature(string, sel("length"));
+        assertSame(first, getMethodSignature(string, sel("length")));
+        assertEquals(2, first.numArgs);
+        assertEquals("Q", first.returnType);
+        
+        invalidateMethodSignatures(sel("length"));
+        assertNotSame(first, getMethodSignature(string, sel("length")));
+    }
+    
+    @Test
+    public void testIdApi() {
+        long nsMutableArray = clsId("NSMutableArray");
+        assertEquals(Pointer.nativeValue(cls("NSMutableArray")), nsMutableArray);
+        assertEquals(0L, clsId("NoSuchClass"));
+        
+        long array = msgId(nsMutableArray, selId("new"));
+        msgId(array, selId("addObject:"), Pointer.nativeValue(str("Hello")));
+        msgId(array, selId("addObject:"), Pointer.nativeValue(str("World")));
+        assertEquals(2L, msgId(array, selId("count")));
+        assertEquals("World", str(new Pointer(msgId(array, selId("objectAtIndex:"), 1))));
+        msgId(array, selId("release"));
+    }
+    
+    @Test
+    public void testLongStringConversion() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < StringConversion.THRESHOLD * 4) {
+            sb.append("Grüße, 世界 \uD83D\uDE00 ");
+        }
+        String expected = sb.toString();
+        Pointer string = str(expected);
+        assertEquals((long)expected.length(), (long)msg(string, "length"));
+        assertEquals(expected, str(string));
+        assertEquals(expected, StringConversion.toJavaUTF8(string));
+        assertEquals("Short", str(str("Short")));
+        assertEquals("", str(str("")));
+    }
+    
 }
@@ -0,0 +1,105 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+import ca.weblite.objc.foundation.NSRange;
+
+/**
+ * Measures the cost of loading {@link RuntimeMappings} and of the first message
+ * with a by-value structure argument, each in a fresh JVM.
+ *
+ * <p>The {@code eager*} benchmarks go through the {@code INSTANCE} fields the
+ * way messages used to be dispatched, where each interface loads itself with
+ * its own {@code Native.loadLibrary} call.  The {@code lazy*} benchmarks go
+ * through {@link RuntimeMappingsRegistry} and {@link ByValueDispatch}, which
+ * resolve every interface against one shared {@code NativeLibrary}.  Nested
+ * interfaces are only initialized when their {@code INSTANCE} is first read,
+ * so neither path ever loads all of the generated interfaces; the mapping
+ * benchmarks load the first {@link #patterns} of them, which is what a
+ * program that sends that many by-value patterns pays.</p>
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main StartupBenchmark
+ * </pre>
+ *
+ * @author shannah
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+    
+    /**
+     * The number of by-value patterns whose mappings are loaded.
+     */
+    @Param({"1", "16"})
+    public int patterns;
+    
+    private String[] suffixes;
+    private Pointer string;
+    private Pointer substringWithRange;
+    private NSRange.ByValue range;
+    
+    @Setup
+    public void setup() {
+        string = str("Startup");
+        substringWithRange = sel("substringWithRange:");
+        range = new NSRange.ByValue();
+        range.setLocation(1);
+        range.setLength(3);
+        suffixes = new String[patterns];
+        for (int i=0; i<patterns; i++) {
+            suffixes[i] = Integer.toBinaryString(i + 1);
+        }
+    }
+    
+    @Benchmark
+    public void eagerMappingInit(Blackhole bh) throws Exception {
+        for (String suffix : suffixes) {
+            bh.consume(Class.forName("ca.weblite.objc.RuntimeMappings$Runtime"+suffix).getField("INSTANCE").get(null));
+        }
+    }
+    
+    @Benchmark
+    public void lazyMappingInit(Blackhole bh) throws Exception {
+        for (String suffix : suffixes) {
+            bh.consume(RuntimeMappingsRegistry.getMapping(suffix));
+        }
+    }
+    
+    @Benchmark
+    public long eagerFirstCall() throws Exception {
+        Class<?> runtimeClass = Class.forName("ca.weblite.objc.RuntimeMappings$Runtime1");
+        Object runtime = runtimeClass.getField("INSTANCE").get(null);
+        return (long)runtimeClass.getMethod("objc_msgSend", Pointer.class, Pointer.class, Structure.ByValue.class)
+                .invoke(runtime, string, substringWithRange, range);
+    }
+    
+    @Benchmark
+    public long lazyFirstCall() {
+        return RuntimeUtils.objc_msgSend(string, substringWithRange, range);
+    }
+}
@@ -0,0 +1,97 @@
+package ca.weblite.objc;
+
+import static ca.weblite.objc.RuntimeUtils.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Compares the UTF-8 and UTF-16 NSString conversion paths of
+ * {@link StringConversion} across string sizes.  The results are what
+ * {@link StringConversion#THRESHOLD} is based on.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main StringConversionBenchmark -prof gc
+ * </pre>
+ *
+ * @author shannah
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringConversionBenchmark {
+    
+    @Param({"16", "256", "4096", "1048576", "4194304"})
+    public int size;
+    
+    private Pointer pool;
+    private String javaString;
+    private Pointer nsString;
+    private long length;
+    
+    @Setup
+    public void setup() {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'é');
+        javaString = new String(chars);
+        nsString = msgPointer(msgPointer("NSString", "alloc"), "initWithString:", StringConversion.toNSStringUTF8(javaString));
+        length = msg(nsString, "length");
+        pool = msgPointer(msgPointer("NSAutoreleasePool", "alloc"), "init");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        msg(nsString, "release");
+        msg(pool, "drain");
+    }
+    
+    /**
+     * The path that {@link RuntimeUtils#str(Pointer)} takes for this size.
+     * For multi-megabyte strings it should stay close to toJavaUTF16 and
+     * allocate no more than the resulting String.
+     */
+    @Benchmark
+    public String toJava() {
+        return StringConversion.toJava(nsString);
+    }
+    
+    @Benchmark
+    public String toJavaUTF8() {
+        return StringConversion.toJavaUTF8(nsString);
+    }
+    
+    @Benchmark
+    public String toJavaUTF16() {
+        return StringConversion.toJavaUTF16(nsString, length);
+    }
+    
+    @Benchmark
+    public Pointer toNSStringUTF8() {
+        return StringConversion.toNSStringUTF8(javaString);
+    }
+    
+    @Benchmark
+    public Pointer toNSStringUTF16() {
+        return StringConversion.toNSStringUTF16(javaString);
+    }
+}
@@ -0,0 +1,197 @@
+package ca.weblite.objc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Function;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+import ca.weblite.objc.TypeEncoding.Kind;
+
+/**
+ *
+ * @author shannah
+ */
+public class TypeEncodingTest {
+    
+    @Test
+    public void testScalars() {
+        assertEquals(Kind.INT, TypeEncoding.of("i").getKind());
+        assertEquals(Kind.UNSIGNED_LONG_LONG, TypeEncoding.of("Q").getKind());
+        assertEquals(Kind.BOOL, TypeEncoding.of("B").getKind());
+        assertTrue(TypeEncoding.of("d").isFloatingPoint());
+        assertFalse(TypeEncoding.of("q").isFloatingPoint());
+        assertEquals(Kind.SELECTOR, TypeEncoding.of(":").getKind());
+    }
+    
+    @Test
+    public void testQualifiers() {
+        TypeEncoding constString = TypeEncoding.of("r*");
+        assertEquals(Kind.C_STRING, constString.getKind());
+        assertEquals("*", constString.getType());
+        assertEquals("r*", constString.getEncoding());
+        assertTrue(constString.isConst());
+        assertSame(TypeEncoding.of("*"), constString.getUnqualified());
+        
+        TypeEncoding out = TypeEncoding.of("oN^@");
+        assertEquals(TypeEncoding.QUALIFIER_OUT | TypeEncoding.QUALIFIER_INOUT, out.getQualifiers());
+        assertEquals("^@", out.getType());
+        assertEquals("^@", TypeEncoding.stripQualifiers("oN^@"));
+    }
+    
+    @Test
+    public void testInterning() {
+        TypeEncoding first = TypeEncoding.of("{CGPoint=dd}");
+        assertSame(first, TypeEncoding.of("{CGPoint=dd}"));
+        assertEquals(first.getId(), TypeEncoding.of("{CGPoint=dd}").getId());
+        assertNotEquals(first.getId(), TypeEncoding.of("{CGSize=dd}").getId());
+        assertSame(first, TypeEncoding.of("{CGRect={CGPoint=dd}{CGSize=dd}}").getFields().get(0));
+    }
+    
+    @Test
+    public void testAggregates() {
+        TypeEncoding rect = TypeEncoding.of("r^{CGRect={CGPoint=dd}{CGSize=dd}}16");
+        assertEquals(Kind.POINTER, rect.getKind());
+        assertTrue(rect.isConst());
+        assertEquals("^{CGRect={CGPoint=dd}{CGSize=dd}}", rect.getType());
+        
+        TypeEncoding struct = rect.getPointee();
+        assertEquals(Kind.STRUCT, struct.getKind());
+        assertTrue(struct.isAggregate());
+        assertEquals("CGRect", struct.getName());
+        assertEquals(2, struct.getFields().size());
+        assertEquals("CGSize", struct.getFields().get(1).getName());
+        assertEquals(Kind.DOUBLE, struct.getFields().get(1).getFields().get(0).getKind());
+        
+        TypeEncoding opaque = TypeEncoding.of("^{__CFString}");
+        assertEquals("__CFString", opaque.getPointee().getName());
+        assertTrue(opaque.getPointee().getFields().isEmpty());
+        
+        TypeEncoding named = TypeEncoding.of("{CGPoint=\"x\"d\"y\"d}");
+        assertEquals("y", named.getFieldNames().get(1));
+        
+        TypeEncoding array = TypeEncoding.of("[12^f]");
+        assertEquals(Kind.ARRAY, array.getKind());
+        assertEquals(12, array.getCount());
+        assertEquals(Kind.POINTER, array.getPointee().getKind());
+        
+        TypeEncoding union = TypeEncoding.of("(?=iq)");
+        assertEquals(Kind.UNION, union.getKind());
+        assertEquals(2, union.getFields().size());
+        
+        TypeEncoding bits = TypeEncoding.of("{flags=b1b7}");
+        assertEquals(Kind.BITFIELD, bits.getFields().get(1).getKind());
+        assertEquals(7, bits.getFields().get(1).getCount());
+    }
+    
+    @Test
+    public void testObjects() {
+        TypeEncoding string = TypeEncoding.of("@\"NSString\"");
+        assertEquals(Kind.OBJECT, string.getKind());
+        assertEquals("NSString", string.getName());
+        
+        TypeEncoding block = TypeEncoding.of("@?");
+        assertEquals(Kind.OBJECT, block.getKind());
+        assertEquals("@?", block.getType());
+    }
+    
+    @Test
+    public void testMethodTypes() {
+        List<TypeEncoding> types = TypeEncoding.parseMethodTypes("v48@0:8r^{CGRect={CGPoint=dd}{CGSize=dd}}16q24@\"NSString\"32");
+        assertEquals(6, types.size());
+        assertEquals(Kind.VOID, types.get(0).getKind());
+        assertEquals(Kind.OBJECT, types.get(1).getKind());
+        assertEquals(Kind.SELECTOR, types.get(2).getKind());
+        assertEquals("CGRect", types.get(3).getPointee().getName());
+        assertEquals(Kind.LONG_LONG, types.get(4).getKind());
+        assertEquals("NSString", types.get(5).getName());
+    }
+    
+    @Test
+    public void testMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> TypeEncoding.of(""));
+        assertThrows(IllegalArgumentException.class, () -> TypeEncoding.of("{CGPoint=dd"));
+        assertThrows(IllegalArgumentException.class, () -> TypeEncoding.of("%"));
+    }
+    
+    @Test
+    public void testLayout() {
+        assertEquals(16, TypeEncoding.of("{CGPoint=dd}").getSize());
+        assertEquals(32, TypeEncoding.of("{CGRect={CGPoint=dd}{CGSize=dd}}").getSize());
+        assertEquals(8, TypeEncoding.of("{CGRect={CGPoint=dd}{CGSize=dd}}").getAlignment());
+        assertEquals(24, TypeEncoding.of("{Mixed=cqs}").getSize());
+        assertEquals(12, TypeEncoding.of("{Floats=fff}").getSize());
+        assertEquals(8, TypeEncoding.of("(Either=iq)").getSize());
+        assertEquals(20, TypeEncoding.of("{Ints=[5i]}").getSize());
+        assertThrows(IllegalArgumentException.class, () -> TypeEncoding.of("{CGRect}").getSize());
+    }
+    
+    @Test
+    public void testBitFieldLayout() {
+        // NSDecimal: 32 bits of flags in one unsigned int, then 8 shorts
+        TypeEncoding decimal = TypeEncoding.of("{?=b8b4b1b1b18[8S]}");
+        assertEquals(20, decimal.getSize());
+        assertEquals(4, decimal.getAlignment());
+        assertEquals(12, decimal.getFieldBitOffset(2));
+        assertEquals(32, decimal.getFieldBitOffset(5));
+        
+        // A bit field that would straddle a storage unit starts the next one
+        TypeEncoding straddle = TypeEncoding.of("{?=b30b4}");
+        assertEquals(32, straddle.getFieldBitOffset(1));
+        assertEquals(8, straddle.getSize());
+        assertEquals(4, TypeEncoding.of("{?=cb4}").getSize());
+        assertEquals(8, TypeEncoding.of("{?=b40}").getAlignment());
+        
+        StructureLayout layout = StructureLayout.of(decimal);
+        assertEquals(20, layout.size);
+    }
+    
+    @Test
+    public void testStructureReturns() {
+        StructureLayout range = StructureLayout.of(TypeEncoding.of("{_NSRange=QQ}"));
+        StructureLayout point = StructureLayout.of(TypeEncoding.of("{CGPoint=dd}"));
+        StructureLayout rect = StructureLayout.of(TypeEncoding.of("{CGRect={CGPoint=dd}{CGSize=dd}}"));
+        StructureLayout transform = StructureLayout.of(TypeEncoding.of("{CGAffineTransform=dddddd}"));
+        assertSame(rect, StructureLayout.of(TypeEncoding.of("{CGRect={CGPoint=dd}{CGSize=dd}}")));
+        assertEquals(StructureLayout.L2.class, range.carrier);
+        assertEquals(StructureLayout.D2.class, point.carrier);
+        if (DirectRuntime.IS_ARM64) {
+            assertEquals(StructureLayout.D4.class, rect.carrier);
+            assertEquals(StructureLayout.L6.class, transform.carrier);
+            assertEquals(StructureLayout.F3.class, StructureLayout.of(TypeEncoding.of("{Floats=fff}")).carrier);
+        } else {
+            assertTrue(rect.stret);
+            assertTrue(transform.stret);
+            assertEquals(StructureLayout.D2.class, StructureLayout.of(TypeEncoding.of("{Floats=fff}")).carrier);
+            assertEquals(StructureLayout.LD.class, StructureLayout.of(TypeEncoding.of("{Mixed=id}")).carrier);
+            assertEquals(StructureLayout.DL.class, StructureLayout.of(TypeEncoding.of("{Mixed=ff^v}")).carrier);
+        }
+    }
+    
+    @Test
+    public void testCarrierReturnsIntoBuffer() {
+        // ldiv_t is two longs, so it comes back in two integer registers
+        Memory buffer = StructureLayout.acquireBuffer(16);
+        StructureLayout.Carrier.into(buffer);
+        Structure result;
+        try {
+            result = (Structure)Function.getFunction("c", "ldiv").invoke(StructureLayout.L2.class, new Object[]{7L, 2L});
+        } finally {
+            StructureLayout.Carrier.into(null);
+        }
+        assertEquals(Pointer.nativeValue(buffer), Pointer.nativeValue(result.getPointer()));
+        assertEquals(3L, buffer.getLong(0));
+        assertEquals(1L, buffer.getLong(8));
+        StructureLayout.releaseBuffer(buffer);
+        
+        // Without a buffer, carriers get their own memory
+        Structure other = Structure.newInstance(StructureLayout.L64.class);
+        assertEquals(512, other.size());
+        assertNotEquals(Pointer.nativeValue(buffer), Pointer.nativeValue(other.getPointer()));
+    }
+}
@@ -0,0 +1,80 @@
+package ca.weblite.objc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import ca.weblite.objc.mappers.ScalarMapping;
+
+/**
+ *
+ * @author shannah
+ */
+public class TypeMapperTest {
+    
+    /**
+     * Passes chars to NSInteger arguments as their code point.
+     */
+    private static class CharacterMapping implements TypeMapping {
+        
+        @Override
+        public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+            return encoding.getKind() == TypeEncoding.Kind.LONG_LONG && javaType == Character.class;
+        }
+        
+        @Override
+        public Object cToJ(Object cVar, String signature, TypeMapping root) {
+            return cVar;
+        }
+        
+        @Override
+        public Object jToC(Object jVar, String signature, TypeMapping root) {
+            return (long)(Character)jVar;
+        }
+    }
+    
+    @Test
+    public void testRegisteredMapping() {
+        TypeMapper mapper = new TypeMapper().register(new CharacterMapping());
+        assertEquals(65L, mapper.jToC('A', "q", mapper));
+        assertEquals(65L, mapper.jToC('A', "rq", mapper));
+        assertEquals(5, mapper.jToC(5, "q", mapper));
+        
+        // The shared instance is not affected
+        assertEquals('A', TypeMapper.getInstance().jToC('A', "q", TypeMapper.getInstance()));
+    }
+    
+    @Test
+    public void testResolve() {
+        TypeMapper mapper = new TypeMapper();
+        TypeEncoding q = TypeEncoding.of("q");
+        assertSame(ScalarMapping.INSTANCE, mapper.resolve(q, Long.class));
+        assertSame(ScalarMapping.INSTANCE, mapper.resolve(q, Character.class));
+        
+        TypeMapping characterMapping = new CharacterMapping();
+        mapper.register(characterMapping);
+        assertSame(characterMapping, mapper.resolve(q, Character.class));
+        assertSame(ScalarMapping.INSTANCE, mapper.resolve(q, Long.class));
+        assertSame(characterMapping, mapper.resolve(q, Character.class));
+    }
+    
+    @Test
+    public void testResolveRemembersEachClass() {
+        int[] asked = new int[1];
+        TypeMapping characterMapping = new CharacterMapping() {
+            @Override
+            public boolean accepts(TypeEncoding encoding, Class<?> javaType) {
+                asked[0]++;
+                return super.accepts(encoding, javaType);
+            }
+        };
+        TypeMapper mapper = new TypeMapper().register(characterMapping);
+        TypeEncoding q = TypeEncoding.of("q");
+        for (int i=0; i<10; i++) {
+            assertSame(characterMapping, mapper.resolve(q, Character.class));
+            assertSame(ScalarMapping.INSTANCE, mapper.resolve(q, Long.class));
+            assertSame(ScalarMapping.INSTANCE, mapper.resolve(q, null));
+        }
+        assertEquals(3, asked[0]);
+    }
+}